@@ -0,0 +1,80 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+import org.netpreserve.jwarc.BufferPool;
+import org.netpreserve.jwarc.WarcCompression;
+import org.netpreserve.jwarc.WarcReader;
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.jwarc.WarcWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Measures read and write throughput of a WARC file against buffer size.
+ * <p>
+ * Usage: java BufferSizeBench file.warc[.gz] [iterations]
+ */
+public class BufferSizeBench {
+    public static void main(String[] args) throws IOException {
+        Path file = Paths.get(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        double megabytes = Files.size(file) / 1024.0 / 1024.0;
+        Path temp = Files.createTempFile("jwarc-bench", ".warc");
+        try {
+            System.out.println("buffer\tread MB/s\tadaptive MB/s\twrite MB/s");
+            for (int shift = 12; shift <= 22; shift += 2) {
+                int size = 1 << shift;
+                double read = 0, adaptive = 0, write = 0;
+                for (int i = 0; i < iterations; i++) {
+                    read = Math.max(read, megabytes / time(() -> read(file, size, 0)));
+                    adaptive = Math.max(adaptive, megabytes / time(() -> read(file, size, 4 * 1024 * 1024)));
+                    write = Math.max(write, megabytes / time(() -> copy(file, temp, size)));
+                }
+                System.out.printf("%d\t%.1f\t%.1f\t%.1f%n", size, read, adaptive, write);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void read(Path file, int bufferSize, int maxBufferSize) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(bufferSize);
+        try (WarcReader reader = new WarcReader(file, new BufferPool(bufferSize, 0))) {
+            reader.setMaxBufferSize(maxBufferSize);
+            for (WarcRecord record : reader) {
+                while (record.body().read(scratch) >= 0) {
+                    scratch.clear();
+                }
+            }
+        }
+    }
+
+    private static void copy(Path file, Path dest, int bufferSize) throws IOException {
+        try (WarcReader reader = new WarcReader(file, new BufferPool(bufferSize, 0));
+             WarcWriter writer = new WarcWriter(FileChannel.open(dest, WRITE, CREATE, TRUNCATE_EXISTING),
+                     WarcCompression.NONE, bufferSize)) {
+            for (WarcRecord record : reader) {
+                writer.write(record);
+            }
+        }
+    }
+
+    private static double time(Task task) throws IOException {
+        long start = System.nanoTime();
+        task.run();
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+}
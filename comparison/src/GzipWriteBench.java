@@ -0,0 +1,88 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+import org.netpreserve.jwarc.MediaType;
+import org.netpreserve.jwarc.ParallelWarcWriter;
+import org.netpreserve.jwarc.WarcCompression;
+import org.netpreserve.jwarc.WarcRecord;
+import org.netpreserve.jwarc.WarcResource;
+import org.netpreserve.jwarc.WarcWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures gzipped record writing throughput with WarcWriter and ParallelWarcWriter.
+ * <p>
+ * Usage: java GzipWriteBench [records] [threads]
+ */
+public class GzipWriteBench {
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Random random = new Random(0);
+        byte[][] bodies = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            // compressible text-like content of typical page sizes
+            bodies[i] = new byte[1000 + random.nextInt(60000)];
+            for (int j = 0; j < bodies[i].length; j++) {
+                bodies[i][j] = (byte) ('a' + (int) Math.abs(random.nextGaussian() * 6) % 26);
+            }
+            total += bodies[i].length;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                try (WarcWriter writer = new WarcWriter(new NullChannel(), WarcCompression.GZIP)) {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(record(i, bodies[i]));
+                    }
+                }
+                double serial = total / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+
+                start = System.nanoTime();
+                try (ParallelWarcWriter writer = new ParallelWarcWriter(new NullChannel(), executor)) {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(record(i, bodies[i]));
+                    }
+                }
+                double parallel = total / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("WarcWriter %.1f MB/s\tParallelWarcWriter (%d threads) %.1f MB/s%n", serial,
+                        threads, parallel);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static WarcRecord record(int i, byte[] body) {
+        return new WarcResource.Builder(URI.create("http://example.org/" + i))
+                .body(MediaType.OCTET_STREAM, body)
+                .build();
+    }
+
+    private static class NullChannel implements WritableByteChannel {
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+import org.netpreserve.jwarc.HttpParser;
+import org.netpreserve.jwarc.WarcParser;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures WARC and HTTP header parsing throughput with heap and direct buffers.
+ * <p>
+ * Usage: java HeaderParseBench [seconds]
+ */
+public class HeaderParseBench {
+    private static final String HEADER = "WARC/1.0\r\n" +
+            "WARC-Type: response\r\n" +
+            "WARC-Record-ID: <urn:uuid:4f5ad7a8-5f4a-4b6f-a1f0-4d6f3d0b4e2a>\r\n" +
+            "WARC-Date: 2019-03-12T06:18:15Z\r\n" +
+            "WARC-Target-URI: https://www.example.org/some/fairly/long/path/to/a/page.html?query=string&x=1\r\n" +
+            "WARC-IP-Address: 93.184.216.34\r\n" +
+            "WARC-Warcinfo-ID: <urn:uuid:b2d6e3f0-7c61-4d3e-9a7e-0c8d5d1e2f3a>\r\n" +
+            "WARC-Concurrent-To: <urn:uuid:0c4b1d7e-1e9f-4a5c-8d2b-6f7e8a9b0c1d>\r\n" +
+            "WARC-Block-Digest: sha1:UZY6ND6CCHXETFVJD2MSS7ZENMWF7KQ2\r\n" +
+            "WARC-Payload-Digest: sha1:CCHXETFVJD2MUZY6ND6SS7ZENMWF7KQ2\r\n" +
+            "Content-Type: application/http;msgtype=response\r\n" +
+            "Content-Length: 123456\r\n" +
+            "\r\n";
+    private static final String HTTP_HEADER = "HTTP/1.1 200 OK\r\n" +
+            "Date: Tue, 12 Mar 2019 06:18:15 GMT\r\n" +
+            "Server: Apache/2.4.29 (Ubuntu)\r\n" +
+            "Last-Modified: Mon, 11 Mar 2019 21:03:44 GMT\r\n" +
+            "ETag: \"2aa6-583d8e2c7d1a4-gzip\"\r\n" +
+            "Cache-Control: max-age=3600, public, must-revalidate\r\n" +
+            "Content-Security-Policy: default-src 'self'; script-src 'self' https://cdn.example.org\r\n" +
+            "Set-Cookie: session=8f14e45fceea167a5a36dedd4bea2543; Path=/; HttpOnly; Secure\r\n" +
+            "Vary: Accept-Encoding\r\n" +
+            "Content-Type: text/html; charset=UTF-8\r\n" +
+            "Content-Length: 10918\r\n" +
+            "\r\n";
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5;
+        ByteBuffer warcHeap = heap(HEADER);
+        ByteBuffer warcDirect = direct(HEADER);
+        ByteBuffer httpHeap = heap(HTTP_HEADER);
+        ByteBuffer httpDirect = direct(HTTP_HEADER);
+        System.out.println("warc heap MB/s\twarc direct MB/s\thttp heap MB/s\thttp direct MB/s");
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("%.1f\t%.1f\t%.1f\t%.1f%n", warc(warcHeap, seconds), warc(warcDirect, seconds),
+                    http(httpHeap, seconds), http(httpDirect, seconds));
+        }
+    }
+
+    private static ByteBuffer heap(String header) {
+        return ByteBuffer.wrap(header.getBytes(UTF_8));
+    }
+
+    private static ByteBuffer direct(String header) {
+        byte[] bytes = header.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    private static double warc(ByteBuffer buffer, double seconds) {
+        WarcParser parser = new WarcParser();
+        long bytes = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        long sink = 0;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                buffer.rewind();
+                parser.reset();
+                parser.parse(buffer);
+                if (!parser.isFinished()) throw new IllegalStateException("parse failed");
+                sink += parser.headers().first("WARC-Target-URI").get().length();
+                bytes += buffer.limit();
+            }
+        }
+        if (sink == 0) throw new AssertionError();
+        return bytes / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static double http(ByteBuffer buffer, double seconds) {
+        long[] sink = new long[1];
+        HttpParser.Handler handler = new HttpParser.Handler() {
+            public void version(int major, int minor) {
+            }
+
+            public void name(String name) {
+                sink[0] += name.length();
+            }
+
+            public void value(String value) {
+                sink[0] += value.length();
+            }
+
+            public void method(String method) {
+            }
+
+            public void reason(String reason) {
+            }
+
+            public void status(int status) {
+            }
+
+            public void target(String target) {
+            }
+        };
+        long bytes = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1000; i++) {
+                buffer.rewind();
+                HttpParser parser = new HttpParser(handler);
+                parser.responseOnly();
+                parser.parse(buffer);
+                if (!parser.isFinished()) throw new IllegalStateException("parse failed");
+                bytes += buffer.limit();
+            }
+        }
+        if (sink[0] == 0) throw new AssertionError();
+        return bytes / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+import org.netpreserve.jwarc.HttpParser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Measures the error rate and throughput of strict and lenient HTTP response parsing over a synthetic corpus of
+ * responses with the kinds of defects seen in real crawl data.
+ * <p>
+ * Usage: java LenientHttpBench [responses] [seconds]
+ */
+public class LenientHttpBench {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        List<ByteBuffer> corpus = corpus(new Random(0), count);
+
+        for (boolean lenient : new boolean[]{false, true}) {
+            long failures = 0;
+            long anomalies = 0;
+            for (ByteBuffer response : corpus) {
+                HttpParser parser = parse(response, lenient);
+                if (!parser.isFinished()) failures++;
+                anomalies += parser.anomalies();
+            }
+            long bytes = 0;
+            long start = System.nanoTime();
+            long deadline = start + (long) (seconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                for (ByteBuffer response : corpus) {
+                    parse(response, lenient);
+                    bytes += response.limit();
+                }
+            }
+            double mbps = bytes / 1024.0 / 1024.0 / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("%s\terror rate %.1f%%\tanomalies %d\t%.1f MB/s%n", lenient ? "lenient" : "strict",
+                    failures * 100.0 / corpus.size(), anomalies, mbps);
+        }
+    }
+
+    private static HttpParser parse(ByteBuffer response, boolean lenient) {
+        response.rewind();
+        HttpParser parser = new HttpParser(new NullHandler());
+        parser.responseOnly();
+        if (lenient) parser.lenient();
+        parser.parse(response);
+        return parser;
+    }
+
+    private static List<ByteBuffer> corpus(Random random, int count) {
+        List<ByteBuffer> corpus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String eol = random.nextInt(10) == 0 ? "\n" : "\r\n";
+            StringBuilder sb = new StringBuilder();
+            switch (random.nextInt(12)) {
+                case 0:
+                    sb.append("HTTP/1.1 200").append(eol); // missing reason phrase
+                    break;
+                case 1:
+                    sb.append("HTTP/1.1 200 OK ").append(eol).append(eol); // stray blank line ends headers early
+                    break;
+                case 2:
+                    sb.append("HTTP 200 OK").append(eol); // junk version
+                    break;
+                default:
+                    sb.append("HTTP/1.1 200 OK").append(eol);
+            }
+            sb.append("Date: Tue, 12 Mar 2019 06:18:15 GMT").append(eol);
+            sb.append("Server: Apache/2.4.29 (Ubuntu)").append(eol);
+            if (random.nextInt(10) == 0) sb.append("this is not a header").append(eol);
+            if (random.nextInt(10) == 0) sb.append("X-Bad Name: value").append(eol);
+            if (random.nextInt(10) == 0) sb.append("X-Folded: one").append(eol).append("\ttwo").append(eol);
+            if (random.nextInt(20) == 0) {
+                sb.append("X-Huge: ");
+                for (int j = 0; j < 5000; j++) sb.append("abcdefghij");
+                sb.append(eol);
+            }
+            sb.append("Content-Type: text/html; charset=UTF-8").append(eol);
+            sb.append("Content-Length: 5").append(eol);
+            sb.append(eol).append("hello");
+            corpus.add(ByteBuffer.wrap(sb.toString().getBytes(ISO_8859_1)));
+        }
+        return corpus;
+    }
+
+    private static class NullHandler implements HttpParser.Handler {
+        public void version(int major, int minor) {
+        }
+
+        public void name(String name) {
+        }
+
+        public void value(String value) {
+        }
+
+        public void method(String method) {
+        }
+
+        public void reason(String reason) {
+        }
+
+        public void status(int status) {
+        }
+
+        public void target(String target) {
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.zip.ZipException;
+
+/**
+ * Finds the start of the next record in a WARC file from an arbitrary byte offset.
+ * <p>
+ * Gzipped files are scanned for gzip member headers and uncompressed files for a <code>WARC/</code> version line
+ * following the previous record's CRLFCRLF trailer. Each candidate is only accepted if a complete record header can
+ * be parsed from it, so a gzip magic number inside compressed data is not mistaken for a boundary. Only files with one
+ * record per gzip member can be split this way.
+ * <p>
+ * An uncompressed WARC stored in a record body looks exactly like real records, so in uncompressed files a candidate
+ * must also be followed, according to its Content-Length, by three further records or the end of the file. That
+ * rejects embedded WARCs of up to three records but a longer one can still be taken for a boundary.
+ */
+class BoundaryFinder implements Closeable {
+    private static final int SCAN_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int OVERLAP = 8;
+    private static final byte[] WARC_MAGIC = {'W', 'A', 'R', 'C', '/'};
+    private static final int CHAIN_LENGTH = 4;
+
+    private final FileChannel channel;
+    private final WarcCompression compression;
+    private final WarcParser parser = new WarcParser();
+
+    BoundaryFinder(Path path, WarcCompression compression) throws IOException {
+        this.channel = FileChannel.open(path);
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the offset of the first record that starts at or after from and before limit, or -1 if there is none.
+     */
+    long next(long from, long limit) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        byte[] bytes = scan.array();
+        // start a little early so we can see the trailer before an uncompressed record
+        long offset = Math.max(0, from - 4);
+        while (offset < limit) {
+            scan.clear();
+            int n = channel.read(scan, offset);
+            if (n <= 0) return -1;
+            for (int i = 0; i < n && offset + i < limit; i++) {
+                long candidate = offset + i;
+                if (candidate >= from && isCandidate(bytes, i, n, candidate) && isRecordAt(candidate)) {
+                    return candidate;
+                }
+            }
+            if (offset + n >= channel.size()) return -1;
+            offset += Math.max(n - OVERLAP, 1);
+        }
+        return -1;
+    }
+
+    private boolean isCandidate(byte[] bytes, int i, int n, long offset) {
+        if (compression == WarcCompression.GZIP) {
+            return i + 3 < n && bytes[i] == 0x1f && (bytes[i + 1] & 0xff) == 0x8b && bytes[i + 2] == 8
+                    && (bytes[i + 3] & 0xe0) == 0;
+        }
+        if (i + WARC_MAGIC.length > n) return false;
+        for (int j = 0; j < WARC_MAGIC.length; j++) {
+            if (bytes[i + j] != WARC_MAGIC[j]) return false;
+        }
+        if (offset == 0) return true;
+        // a candidate too close to the start of the chunk was already checked as part of the previous one
+        return i >= 4 && bytes[i - 4] == '\r' && bytes[i - 3] == '\n' && bytes[i - 2] == '\r' && bytes[i - 1] == '\n';
+    }
+
+    /**
+     * Checks whether a record starts at the given offset.
+     */
+    boolean isRecordAt(long offset) throws IOException {
+        if (compression == WarcCompression.GZIP) {
+            return parseHeader(offset) >= 0;
+        }
+        long size = channel.size();
+        long position = offset;
+        for (int i = 0; i < CHAIN_LENGTH && position < size; i++) {
+            long end = parseHeader(position);
+            if (end < 0 || end > size || !isTrailerBefore(end)) return false;
+            position = end;
+        }
+        return true;
+    }
+
+    private boolean isTrailerBefore(long end) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, end - 4 + trailer.position()) < 0) return false;
+        }
+        return trailer.getInt(0) == 0x0d0a0d0a;
+    }
+
+    /**
+     * Tries to parse a record header at the given offset.
+     *
+     * @return where the record would end, including its trailer, if uncompressed or -1 if no header was found
+     */
+    private long parseHeader(long offset) throws IOException {
+        ReadableByteChannel input = new PositionalChannel(channel, offset);
+        if (compression == WarcCompression.GZIP) {
+            input = new GunzipChannel(input, (ByteBuffer) ByteBuffer.allocate(8192).flip());
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            buffer.flip();
+            parser.reset();
+            long total = 0;
+            while (total < MAX_HEADER_SIZE) {
+                parser.parse(buffer);
+                if (parser.isFinished()) {
+                    long contentLength = parser.headers().sole("Content-Length").map(Long::parseLong).orElse(0L);
+                    return offset + parser.position() + contentLength + 4;
+                }
+                if (parser.isError()) return -1;
+                int n = IOUtils.refill(input, buffer);
+                if (n < 0) return -1;
+                total += n;
+            }
+            return -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        } catch (ZipException | EOFException e) {
+            return -1; // a false candidate is likely to be corrupt gzip data
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
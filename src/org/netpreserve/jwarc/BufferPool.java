@@ -0,0 +1,99 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Recycles I/O buffers and inflaters between readers.
+ * <p>
+ * Opening a large number of small WARC files allocates a fresh buffer and native zlib stream for each one. Sharing a
+ * pool between the readers lets them reuse released objects instead. A pool is thread-safe and holds at most a fixed
+ * number of idle objects; anything released beyond that is discarded and released inflaters are ended immediately
+ * rather than waiting for finalization.
+ * <p>
+ * Subclasses may override the acquire and release methods to plug in a different allocation strategy.
+ */
+public class BufferPool {
+    /**
+     * Allocates new objects every time and keeps nothing. Used by readers that were not given a pool.
+     */
+    static final BufferPool UNPOOLED = new BufferPool(8192, 0);
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final BlockingQueue<Inflater> inflaters;
+
+    /**
+     * Creates a pool of 8 KiB buffers holding up to 64 idle buffers and inflaters.
+     */
+    public BufferPool() {
+        this(8192, 64);
+    }
+
+    /**
+     * @param bufferSize the capacity of the buffers handed out
+     * @param maxIdle    the maximum number of each type of object kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+        if (maxIdle < 0) throw new IllegalArgumentException("maxIdle must not be negative");
+        this.bufferSize = bufferSize;
+        this.buffers = maxIdle == 0 ? null : new ArrayBlockingQueue<>(maxIdle);
+        this.inflaters = maxIdle == 0 ? null : new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * The capacity of buffers returned by {@link #acquireBuffer()}.
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer of {@link #bufferSize()} bytes.
+     */
+    public ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use it afterwards.
+     */
+    public void releaseBuffer(ByteBuffer buffer) {
+        if (buffers != null && buffer.capacity() == bufferSize && !buffer.isReadOnly()) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Returns an inflater for raw deflate data (no zlib header).
+     */
+    public Inflater acquireInflater() {
+        Inflater inflater = inflaters == null ? null : inflaters.poll();
+        return inflater == null ? new Inflater(true) : inflater;
+    }
+
+    /**
+     * Returns an inflater to the pool or ends it if the pool is full. The caller must not use it afterwards.
+     */
+    public void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (inflaters == null || !inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+}
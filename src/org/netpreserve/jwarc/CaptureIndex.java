@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.TreeSet;
@@ -15,23 +16,28 @@ class CaptureIndex {
     private Capture entrypoint;
 
     CaptureIndex(List<Path> warcs) throws IOException {
-        for (Path warc : warcs) {
-            try (WarcReader reader = new WarcReader(warc)) {
-                for (WarcRecord record : reader) {
-                    if ((record instanceof WarcResponse || record instanceof WarcResource)) {
-                        WarcCaptureRecord capture = (WarcCaptureRecord) record;
-                        String scheme = capture.targetURI().getScheme();
-                        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
-                            Capture entry = new Capture(capture.targetURI(), capture.date(), warc, reader.position());
-                            add(entry);
-                            if (entrypoint == null && MediaType.HTML.equals(capture.payloadType().base())) {
-                                entrypoint = entry;
-                            }
+        new WarcScanner(warcs).forEachFile((warc, reader) -> {
+            FileEntries entries = new FileEntries();
+            for (WarcRecord record : reader) {
+                if ((record instanceof WarcResponse || record instanceof WarcResource)) {
+                    WarcCaptureRecord capture = (WarcCaptureRecord) record;
+                    String scheme = capture.targetURI().getScheme();
+                    if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+                        Capture entry = new Capture(capture.targetURI(), capture.date(), warc, reader.position());
+                        entries.captures.add(entry);
+                        if (entries.entrypoint == null && MediaType.HTML.equals(capture.payloadType().base())) {
+                            entries.entrypoint = entry;
                         }
                     }
                 }
             }
-        }
+            return entries;
+        }, entries -> {
+            if (entrypoint == null) {
+                entrypoint = entries.entrypoint;
+            }
+            entries.captures.forEach(this::add);
+        });
     }
 
     void add(Capture capture) {
@@ -45,4 +51,9 @@ class CaptureIndex {
     Capture entrypoint() {
         return entrypoint;
     }
+
+    private static class FileEntries {
+        final List<Capture> captures = new ArrayList<>();
+        Capture entrypoint;
+    }
 }
@@ -8,19 +8,45 @@ package org.netpreserve.jwarc;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 class ChunkedBody extends MessageBody {
     private final ReadableByteChannel channel;
-    private final ByteBuffer buffer;
-    private long position = 0;
-    private long remaining = 0;
-    private long chunkLength = -1;
-    private boolean finished;
+    final ByteBuffer buffer;
+    long position = 0;
+    long remaining = 0;
+    long chunkLength = -1;
+    final BufferPool pool; // used when decoding the body
+    private boolean ownsBuffer;
 
     public ChunkedBody(ReadableByteChannel channel, ByteBuffer buffer) {
         this.channel = channel;
         this.buffer = buffer;
+        this.pool = BufferPool.UNPOOLED;
+    }
+
+    private ChunkedBody(ReadableByteChannel channel, ByteBuffer buffer, BufferPool pool) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.pool = pool;
+        this.ownsBuffer = true;
+    }
+
+    /**
+     * Creates a body whose buffer was acquired from the given pool and is returned to it on close. The body is
+     * seekable if the channel is.
+     */
+    static ChunkedBody createPooled(ReadableByteChannel channel, ByteBuffer buffer, BufferPool pool) {
+        if (channel instanceof SeekableByteChannel) {
+            return new Seekable((SeekableByteChannel) channel, buffer, pool);
+        }
+        return new ChunkedBody(channel, buffer, pool);
     }
 
     public boolean isOpen() {
@@ -28,6 +54,10 @@ class ChunkedBody extends MessageBody {
     }
 
     public void close() throws IOException {
+        if (ownsBuffer) {
+            ownsBuffer = false;
+            pool.releaseBuffer(buffer);
+        }
         channel.close();
     }
 
@@ -35,40 +65,136 @@ class ChunkedBody extends MessageBody {
         return position;
     }
 
+    @Override
+    BufferPool pool() {
+        return pool;
+    }
+
     public int read(ByteBuffer dst) throws IOException {
-        while (chunkLength != 0) {
-            if (!buffer.hasRemaining()) {
-                // optimisation: let large reads bypass our buffer
-                if (remaining >= buffer.capacity() && dst.remaining() >= buffer.capacity()) {
-                    int n = channel.read(dst);
-                    if (n < 0) throw new EOFException("EOF reached before end of chunked encoding");
-                    remaining -= n;
-                    position += n;
-                    return n;
-                }
+        if (remaining == 0 && !nextChunk()) {
+            return -1;
+        }
+        if (!buffer.hasRemaining()) {
+            // optimisation: when the caller has room for the rest of the chunk (or at least a buffer full of it)
+            // read it directly rather than copying it through our buffer. Smaller reads still go through the buffer,
+            // even from a scattering channel, so they don't each cost a system call.
+            if (dst.remaining() >= Math.min(remaining, buffer.capacity())) {
+                return readDirect(dst);
+            }
+            if (IOUtils.refill(channel, buffer) < 0) {
+                throw new EOFException("EOF reached before end of chunked encoding");
+            }
+        }
+        int n = IOUtils.transfer(buffer, dst, remaining);
+        remaining -= n;
+        position += n;
+        return n;
+    }
 
-                // refill
-                buffer.compact();
-                if (channel.read(buffer) < 0) {
-                    throw new EOFException("EOF reached before end of chunked encoding");
+    private int readDirect(ByteBuffer dst) throws IOException {
+        int savedLimit = dst.limit();
+        int start = dst.position();
+        if (dst.remaining() > remaining) {
+            dst.limit(start + (int) remaining);
+        }
+        try {
+            long n;
+            if (channel instanceof ScatteringByteChannel) {
+                // anything past the caller's share lands in our buffer, saving a separate read for the next header
+                buffer.clear();
+                try {
+                    n = ((ScatteringByteChannel) channel).read(new ByteBuffer[]{dst, buffer});
+                } finally {
+                    buffer.flip();
                 }
-                buffer.flip();
+            } else {
+                n = channel.read(dst);
+            }
+            if (n < 0) {
+                throw new EOFException("EOF reached before end of chunked encoding");
             }
+        } finally {
+            dst.limit(savedLimit);
+        }
+        int n = dst.position() - start;
+        remaining -= n;
+        position += n;
+        return n;
+    }
 
-            // if we're in the middle of a chunk satisfy it from our buffer
-            if (remaining > 0) {
-                int n = IOUtils.transfer(buffer, dst, remaining);
-                remaining -= n;
-                position += n;
-                return n;
+    /**
+     * Parses chunk headers until one with data is found.
+     *
+     * @return false if the last chunk was reached instead
+     */
+    boolean nextChunk() throws IOException {
+        while (chunkLength != 0) {
+            if (!buffer.hasRemaining() && IOUtils.refill(channel, buffer) < 0) {
+                throw new EOFException("EOF reached before end of chunked encoding");
+            }
+            if (!parseSimpleHeader()) {
+                chunkLength = -1;
+                parse();
             }
+            if (chunkLength > 0) {
+                remaining = chunkLength;
+                return true;
+            }
+        }
+        return false;
+    }
 
-            // otherwise run the header parser
-            chunkLength = -1;
-            parse();
-            remaining = chunkLength;
+    /**
+     * Fast path for the usual case of a header with no extensions that's entirely within the buffer. Anything else is
+     * left untouched for the state machine to deal with.
+     */
+    private boolean parseSimpleHeader() {
+        int p = buffer.position();
+        int pe = buffer.limit();
+        if (cs == afterHeaderState) {
+            // the CRLF that ends the previous chunk's data
+            if (pe - p < 2 || buffer.get(p) != '\r' || buffer.get(p + 1) != '\n') return false;
+            p += 2;
+        } else if (cs != chunked_start) {
+            return false;
+        }
+        long length = 0;
+        int digits = 0;
+        for (; p < pe; p++, digits++) {
+            byte b = buffer.get(p);
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            } else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            } else if (b >= 'A' && b <= 'F') {
+                digit = b - 'A' + 10;
+            } else {
+                break;
+            }
+            length = length << 4 | digit;
+        }
+        if (length == 0 || digits > 15 || pe - p < 2 || buffer.get(p) != '\r' || buffer.get(p + 1) != '\n') {
+            return false;
         }
-        return -1;
+        buffer.position(p + 2);
+        chunkLength = length;
+        cs = afterHeaderState;
+        return true;
+    }
+
+    /**
+     * Continues reading from somewhere within a chunk's data. The caller must have already positioned the
+     * underlying channel.
+     */
+    void resume(long position, long chunkRemaining) {
+        buffer.clear();
+        buffer.flip();
+        this.position = position;
+        this.remaining = chunkRemaining;
+        chunkLength = -1;
+        cs = afterHeaderState;
+        tmp = 0;
     }
 
     
@@ -332,4 +458,118 @@ static final int chunked_en_chunks = 1;
 
 
 // line 131 "ChunkedBody.rl"
+
+    // the state a header without extensions leaves the parser in, which the fast path must match
+    private static final int afterHeaderState = stateAfter("1\r\n");
+
+    private static int stateAfter(String header) {
+        ChunkedBody body = new ChunkedBody(null, ByteBuffer.wrap(header.getBytes(US_ASCII)));
+        try {
+            body.parse();
+        } catch (ParsingException e) {
+            throw new IllegalStateException(e);
+        }
+        return body.cs;
+    }
+
+    /**
+     * A chunked body over a seekable channel. The position of each chunk is recorded as it's parsed so the decoded
+     * content can be randomly accessed and skipping forward can seek over chunk data rather than read it.
+     */
+    private static class Seekable extends ChunkedBody implements SeekableByteChannel {
+        private final SeekableByteChannel seekable;
+        private long[] starts = new long[16]; // decoded position of each chunk
+        private long[] offsets = new long[16]; // position of each chunk's data in the underlying channel
+        private int count;
+        private long indexedEnd; // decoded position of the end of the last chunk in the index
+        private long size = -1;
+
+        Seekable(SeekableByteChannel channel, ByteBuffer buffer, BufferPool pool) {
+            super(channel, buffer, pool);
+            this.seekable = channel;
+        }
+
+        @Override
+        boolean nextChunk() throws IOException {
+            if (!super.nextChunk()) {
+                if (size < 0) size = position;
+                return false;
+            }
+            if (position == indexedEnd) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                starts[count] = position;
+                offsets[count] = seekable.position() - buffer.remaining();
+                count++;
+                indexedEnd = position + chunkLength;
+            }
+            return true;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) throw new IllegalArgumentException("negative position");
+            if (newPosition < indexedEnd) {
+                int i = Arrays.binarySearch(starts, 0, count, newPosition);
+                if (i < 0) i = -i - 2;
+                jump(i, newPosition);
+                return this;
+            }
+            if (size >= 0) {
+                // everything has been indexed so this is at or past the end
+                resume(newPosition, 0);
+                chunkLength = 0;
+                return this;
+            }
+            if (position < indexedEnd) {
+                jump(count - 1, indexedEnd);
+            }
+            while (position < newPosition && nextChunk()) {
+                long target = Math.min(indexedEnd, newPosition);
+                long n = target - position;
+                if (n <= buffer.remaining()) {
+                    buffer.position(buffer.position() + (int) n);
+                    remaining -= n;
+                    position = target;
+                } else {
+                    jump(count - 1, target);
+                }
+            }
+            if (position < newPosition) {
+                position = newPosition;
+            }
+            return this;
+        }
+
+        private void jump(int chunk, long newPosition) throws IOException {
+            long end = chunk + 1 < count ? starts[chunk + 1] : indexedEnd;
+            seekable.position(offsets[chunk] + newPosition - starts[chunk]);
+            resume(newPosition, end - newPosition);
+        }
+
+        /**
+         * The decoded length of the body. If it's not yet known the remaining chunk headers are read to find it.
+         */
+        @Override
+        public long size() throws IOException {
+            if (size < 0) {
+                long saved = position;
+                position(Long.MAX_VALUE);
+                position(saved);
+            }
+            return size;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+    }
 }
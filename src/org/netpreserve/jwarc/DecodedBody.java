@@ -0,0 +1,107 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A message body with its HTTP content codings removed as it's read, without buffering the whole payload.
+ */
+class DecodedBody extends MessageBody {
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    private final List<ByteBuffer> buffers;
+    private long position;
+    private boolean open = true;
+
+    private DecodedBody(ReadableByteChannel channel, BufferPool pool, List<ByteBuffer> buffers) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Wraps a body to undo the given Content-Encoding header values. Codings are removed in the reverse of the order
+     * they are listed (and so were applied) in.
+     *
+     * @throws IOException if a coding other than gzip, deflate or identity is used
+     */
+    static MessageBody create(MessageBody body, List<String> contentEncodings, BufferPool pool) throws IOException {
+        List<String> codings = new ArrayList<>();
+        for (String value : contentEncodings) {
+            for (String coding : value.split(",")) {
+                coding = coding.trim().toLowerCase(Locale.ROOT);
+                if (coding.isEmpty() || coding.equals("identity")) continue;
+                if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("deflate")) {
+                    throw new IOException("unsupported content encoding: " + coding);
+                }
+                codings.add(coding);
+            }
+        }
+        if (codings.isEmpty()) {
+            return body;
+        }
+        ReadableByteChannel channel = body;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = codings.size() - 1; i >= 0; i--) {
+            ByteBuffer buffer = pool.acquireBuffer();
+            buffer.flip();
+            buffers.add(buffer);
+            if (codings.get(i).equals("deflate")) {
+                channel = new InflaterChannel(channel, buffer, pool);
+            } else {
+                channel = new GunzipChannel(channel, buffer, pool);
+            }
+        }
+        return new DecodedBody(channel, pool, buffers);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = channel.read(dst);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * The number of decoded bytes read so far.
+     */
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    BufferPool pool() {
+        return pool;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            try {
+                channel.close();
+            } finally {
+                for (ByteBuffer buffer : buffers) {
+                    pool.releaseBuffer(buffer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Shared string constants for commonly seen header field names so parsers don't allocate a new string for each one.
+ * <p>
+ * Only exact (case-sensitive) matches are interned so that headers are written back out exactly as they were read.
+ */
+class FieldNames {
+    private static final String[] KNOWN = {
+            // WARC
+            "WARC-Type", "WARC-Record-ID", "WARC-Date", "Content-Length", "Content-Type", "WARC-Concurrent-To",
+            "WARC-Block-Digest", "WARC-Payload-Digest", "WARC-IP-Address", "WARC-Refers-To",
+            "WARC-Refers-To-Target-URI", "WARC-Refers-To-Date", "WARC-Target-URI", "WARC-Truncated",
+            "WARC-Warcinfo-ID", "WARC-Filename", "WARC-Profile", "WARC-Identified-Payload-Type",
+            "WARC-Segment-Number", "WARC-Segment-Origin-ID", "WARC-Segment-Total-Length",
+            // warcinfo
+            "software", "format", "conformsTo", "isPartOf", "description", "operator", "hostname", "ip",
+            "http-header-user-agent", "http-header-from", "robots",
+            // HTTP
+            "Accept", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age", "Cache-Control", "Connection",
+            "Content-Encoding", "Content-Language", "Content-Location", "Content-Security-Policy", "Cookie", "Date",
+            "ETag", "Expires", "Host", "If-Modified-Since", "If-None-Match", "Keep-Alive", "Last-Modified", "Link",
+            "Location", "Pragma", "Referer", "Server", "Set-Cookie", "Strict-Transport-Security",
+            "Transfer-Encoding", "User-Agent", "Vary", "Via", "X-Content-Type-Options", "X-Frame-Options",
+            "X-Powered-By", "X-XSS-Protection",
+    };
+    private static final String[] TABLE = buildTable();
+
+    private static String[] buildTable() {
+        String[] table = new String[256];
+        for (String name : KNOWN) {
+            int i = hash(name.getBytes(US_ASCII), 0, name.length()) & (table.length - 1);
+            while (table[i] != null) {
+                i = (i + 1) & (table.length - 1);
+            }
+            table[i] = name;
+        }
+        return table;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = length;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the field name in the given ASCII bytes, using a shared constant if it's a known name.
+     */
+    static String intern(byte[] bytes, int offset, int length) {
+        int mask = TABLE.length - 1;
+        for (int i = hash(bytes, offset, length) & mask; TABLE[i] != null; i = (i + 1) & mask) {
+            if (matches(TABLE[i], bytes, offset, length)) {
+                return TABLE[i];
+            }
+        }
+        return new String(bytes, offset, length, US_ASCII);
+    }
+
+    private static boolean matches(String name, byte[] bytes, int offset, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != bytes[offset + i]) return false;
+        }
+        return true;
+    }
+}
@@ -7,9 +7,14 @@ package org.netpreserve.jwarc;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -22,22 +27,45 @@ class GunzipChannel implements ReadableByteChannel {
     private static final int FCOMMENT = 16;
     private static final int CM_DEFLATE = 8;
     private static final short GZIP_MAGIC = (short) 0x8b1f;
+    private static final int SKIP_SCAN_SIZE = 16 * 1024;
+
+    // ByteBuffer overloads added in JDK 11, without them direct buffers are copied through an array
+    private static final MethodHandle SET_INPUT_BUFFER = lookupInflaterMethod("setInput", void.class);
+    private static final MethodHandle INFLATE_BUFFER = lookupInflaterMethod("inflate", int.class);
+    private static final int INPUT_CHUNK_SIZE = 8192;
+    static boolean forceArrayInput; // exercises the Java 8 code path in tests
 
     private final ReadableByteChannel channel;
     private final ByteBuffer buffer;
-    private final Inflater inflater = new Inflater(true);
+    private final BufferPool pool;
+    private final Inflater inflater;
     private long inputPosition;
+    private long memberStart;
+    private long memberLength = -1;
     private boolean seenHeader;
+    private boolean closed;
     private CRC32 crc; //= new CRC32();
+    private byte[] inputArray;
+    private byte[] outputArray;
+    private int inputEnd; // buffer position the inflater's current input ends at
 
     public GunzipChannel(ReadableByteChannel channel, ByteBuffer buffer) {
+        this(channel, buffer, BufferPool.UNPOOLED);
+    }
+
+    GunzipChannel(ReadableByteChannel channel, ByteBuffer buffer, BufferPool pool) {
         this.channel = channel;
         this.buffer = buffer;
+        this.pool = pool;
+        this.inflater = pool.acquireInflater();
         buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     @Override
     public int read(ByteBuffer dest) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
         if (!seenHeader) {
             if (!readHeader()) {
                 return -1;
@@ -46,18 +74,22 @@ class GunzipChannel implements ReadableByteChannel {
         }
 
         if (inflater.needsInput()) {
-            readAtLeast(1);
-            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (!readAtLeast(1)) {
+                throw new EOFException("reading gzip member");
+            }
+            setInput();
         }
 
         try {
-            int n = inflater.inflate(dest.array(), dest.arrayOffset() + dest.position(), dest.remaining());
+            int start = dest.position();
+            int n = inflate(dest);
             if (crc != null) {
-                crc.update(dest.array(), dest.arrayOffset() + dest.position(), n);
+                ByteBuffer written = dest.duplicate();
+                written.position(start).limit(start + n);
+                crc.update(written);
             }
-            dest.position(dest.position() + n);
 
-            int newBufferPosition = buffer.limit() - inflater.getRemaining();
+            int newBufferPosition = inputEnd - inflater.getRemaining();
             inputPosition += newBufferPosition - buffer.position();
             buffer.position(newBufferPosition);
 
@@ -75,6 +107,76 @@ class GunzipChannel implements ReadableByteChannel {
         }
     }
 
+    private void setInput() {
+        if (inputArray == null && !buffer.hasArray()) {
+            inputArray = new byte[INPUT_CHUNK_SIZE];
+        }
+        inputEnd = setInput(inflater, buffer, inputArray);
+    }
+
+    /**
+     * Gives the inflater the buffer's remaining bytes without advancing the buffer. If the buffer has no accessible
+     * array and the inflater can't take a ByteBuffer (Java 8) then only as much as fits in the scratch array is copied,
+     * so a large mapped or read-only buffer isn't copied whole each time.
+     *
+     * @param scratch copy space, only needed when the buffer has no accessible array
+     * @return the buffer position the inflater's input ends at
+     */
+    static int setInput(Inflater inflater, ByteBuffer buffer, byte[] scratch) {
+        if (buffer.hasArray()) {
+            inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return buffer.limit();
+        } else if (SET_INPUT_BUFFER != null && !forceArrayInput) {
+            try {
+                SET_INPUT_BUFFER.invokeExact(inflater, buffer.duplicate());
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            return buffer.limit();
+        } else {
+            int length = Math.min(buffer.remaining(), scratch.length);
+            ByteBuffer input = buffer.duplicate();
+            input.get(scratch, 0, length);
+            inflater.setInput(scratch, 0, length);
+            return buffer.position() + length;
+        }
+    }
+
+    /**
+     * Inflates into dest advancing its position by the number of bytes written.
+     */
+    private int inflate(ByteBuffer dest) throws DataFormatException {
+        if (dest.hasArray()) {
+            int n = inflater.inflate(dest.array(), dest.arrayOffset() + dest.position(), dest.remaining());
+            dest.position(dest.position() + n);
+            return n;
+        } else if (INFLATE_BUFFER != null) {
+            try {
+                return (int) INFLATE_BUFFER.invokeExact(inflater, dest);
+            } catch (DataFormatException | RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        } else {
+            if (outputArray == null) {
+                outputArray = new byte[8192];
+            }
+            int n = inflater.inflate(outputArray, 0, Math.min(outputArray.length, dest.remaining()));
+            dest.put(outputArray, 0, n);
+            return n;
+        }
+    }
+
+    private static MethodHandle lookupInflaterMethod(String name, Class<?> returnType) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Inflater.class, name,
+                    MethodType.methodType(returnType, ByteBuffer.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
     private void readTrailer() throws IOException {
         if (!readAtLeast(8)) {
             throw new EOFException("reading gzip trailer");
@@ -93,6 +195,8 @@ class GunzipChannel implements ReadableByteChannel {
     }
 
     private boolean readHeader() throws IOException {
+        memberStart = inputPosition;
+        memberLength = -1;
         if (!readAtLeast(10)) {
             if (buffer.hasRemaining()) {
                 throw new EOFException("partial gzip header");
@@ -113,17 +217,20 @@ class GunzipChannel implements ReadableByteChannel {
         int os = buffer.get();
         inputPosition += 10;
         if ((flg & FEXTRA) == FEXTRA) {
-            int xlen = buffer.getShort();
-            ByteBuffer extra = ByteBuffer.allocate(xlen);
-            while (extra.hasRemaining()) {
-                for (int i = 0; i < xlen; i++) {
-                    if (!readAtLeast(1)) {
-                        throw new EOFException("reading gzip extra");
-                    }
-                    buffer.get();
+            if (!readAtLeast(2)) {
+                throw new EOFException("reading gzip extra length");
+            }
+            int xlen = buffer.getShort() & 0xffff;
+            inputPosition += 2;
+            byte[] extra = new byte[xlen];
+            for (int i = 0; i < xlen; i++) {
+                if (!readAtLeast(1)) {
+                    throw new EOFException("reading gzip extra");
                 }
-                inputPosition += xlen;
+                extra[i] = buffer.get();
             }
+            inputPosition += xlen;
+            parseExtra(extra);
         }
         if ((flg & FNAME) == FNAME) {
             do {
@@ -151,27 +258,185 @@ class GunzipChannel implements ReadableByteChannel {
         return true;
     }
 
+    /**
+     * Looks for the 'sl' subfield some WARC writers use to record the compressed length of the member.
+     */
+    private void parseExtra(byte[] extra) {
+        ByteBuffer fields = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (fields.remaining() >= 4) {
+            byte si1 = fields.get();
+            byte si2 = fields.get();
+            int length = fields.getShort() & 0xffff;
+            if (length > fields.remaining()) break;
+            if (si1 == 's' && si2 == 'l' && length >= 4) {
+                memberLength = fields.getInt(fields.position()) & 0xffffffffL;
+            }
+            fields.position(fields.position() + length);
+        }
+    }
+
+    /**
+     * Skips the rest of the current gzip member without inflating it.
+     * <p>
+     * The end of the member is taken from the 'sl' extra field when present, otherwise the compressed data is scanned
+     * for the next gzip header. Either way the boundary is only trusted if the trailer before it records the expected
+     * uncompressed size and it is followed by another header or the end of the input, so a stray magic number inside
+     * compressed data is never mistaken for a boundary.
+     * <p>
+     * Skipping needs to read ahead and then reposition so the underlying channel must be a
+     * {@link SeekableByteChannel}, unless the whole input is held in the buffer.
+     *
+     * @param memberSize the uncompressed size of the whole member
+     * @return false if the boundary couldn't be found in which case nothing has been consumed
+     */
+    boolean skipMember(long memberSize) throws IOException {
+        if (!seenHeader || !(channel == IOUtils.END_OF_INPUT || channel instanceof SeekableByteChannel)) {
+            return false;
+        }
+        int isize = (int) memberSize;
+        long end = -1;
+        if (memberLength >= 0 && isMemberEnd(memberStart + memberLength, isize)) {
+            end = memberStart + memberLength;
+        }
+        if (end < 0) {
+            // deflate can't expand data by much so the member can't end far beyond the rest of its uncompressed size
+            long remaining = Math.max(0, memberSize - inflater.getBytesWritten());
+            end = scanForMemberEnd(isize, inputPosition + remaining + (remaining >> 6) + 64 * 1024);
+            if (end < 0) return false;
+        }
+
+        long delta = end - inputPosition;
+        if (delta <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) delta);
+        } else {
+            SeekableByteChannel seekable = (SeekableByteChannel) channel;
+            seekable.position(seekable.position() + delta - buffer.remaining());
+            buffer.position(buffer.limit());
+        }
+        reset(end);
+        return true;
+    }
+
+    /**
+     * Discards any partially read member after the underlying channel has been repositioned to the start of a new one.
+     *
+     * @param inputPosition the new value for {@link #inputPosition()}
+     */
+    void reset(long inputPosition) {
+        this.inputPosition = inputPosition;
+        inflater.reset();
+        if (crc != null) {
+            crc.reset();
+        }
+        seenHeader = false;
+    }
+
+    /**
+     * Scans for a gzip header preceded by a trailer with the expected size, giving up once past limit.
+     */
+    private long scanForMemberEnd(int isize, long limit) throws IOException {
+        byte[] bytes = new byte[SKIP_SCAN_SIZE];
+        long offset = inputPosition;
+        int i = 8; // the trailer alone is 8 bytes
+        while (offset + i <= limit) {
+            int n = readInputFully(offset, ByteBuffer.wrap(bytes));
+            for (; i + 3 < n && offset + i <= limit; i++) {
+                // the magic number also turns up inside compressed data so keep looking until the size matches
+                if (bytes[i] == 0x1f && (bytes[i + 1] & 0xff) == 0x8b && bytes[i + 2] == 8
+                        && (bytes[i + 3] & 0xe0) == 0 && getIntLE(bytes, i - 4) == isize) {
+                    return offset + i;
+                }
+            }
+            if (n < bytes.length) {
+                return offset + n - inputPosition >= 8 && getIntLE(bytes, n - 4) == isize ? offset + n : -1;
+            }
+            // overlap so a header or trailer straddling the chunks is still seen
+            offset += n - 7;
+            i = 4;
+        }
+        return -1;
+    }
+
+    private boolean isMemberEnd(long end, int isize) throws IOException {
+        if (end - 8 < inputPosition) return false;
+        byte[] bytes = new byte[8];
+        int n = readInputFully(end - 4, ByteBuffer.wrap(bytes));
+        if (n < 4 || getIntLE(bytes, 0) != isize) return false;
+        return n == 4 || (n == 8 && bytes[4] == 0x1f && (bytes[5] & 0xff) == 0x8b && bytes[6] == 8
+                && (bytes[7] & 0xe0) == 0);
+    }
+
+    private static int getIntLE(byte[] bytes, int i) {
+        return (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16 |
+                (bytes[i + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Reads the input starting at the given offset (in inputPosition terms) without consuming it.
+     */
+    private int readInputFully(long offset, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            long delta = offset + total - inputPosition;
+            int n;
+            if (delta < buffer.remaining()) {
+                ByteBuffer src = buffer.duplicate();
+                src.position(buffer.position() + (int) delta);
+                if (src.remaining() > dst.remaining()) {
+                    src.limit(src.position() + dst.remaining());
+                }
+                n = src.remaining();
+                dst.put(src);
+            } else if (channel == IOUtils.END_OF_INPUT) {
+                break; // all input is in the buffer
+            } else {
+                SeekableByteChannel seekable = (SeekableByteChannel) channel;
+                long saved = seekable.position();
+                try {
+                    seekable.position(saved + delta - buffer.remaining());
+                    n = seekable.read(dst);
+                } finally {
+                    seekable.position(saved);
+                }
+                if (n < 0) break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
     private boolean readAtLeast(int n) throws IOException {
         while (buffer.remaining() < n) {
-            buffer.compact();
-            int actual = channel.read(buffer);
-            buffer.flip();
-            if (actual < 0) return false;
+            if (IOUtils.refill(channel, buffer) < 0) return false;
         }
         return true;
     }
 
     @Override
     public boolean isOpen() {
-        return channel.isOpen();
+        return !closed && channel.isOpen();
     }
 
+    /**
+     * Closes the underlying channel and releases the inflater's native memory (or returns it to the pool).
+     */
     @Override
     public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pool.releaseInflater(inflater);
+        }
         channel.close();
     }
 
     public long inputPosition() {
         return inputPosition;
     }
+
+    /**
+     * Returns true when the next read will start a new gzip member.
+     */
+    boolean atMemberBoundary() {
+        return !seenHeader;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses what's written to it as a series of gzip members, ending one each time {@link #finish()} is called.
+ * The same deflater is reset and reused for every member.
+ */
+class GzipChannel implements WritableByteChannel {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private final WritableByteChannel channel;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer output;
+    private byte[] inputArray;
+    private boolean inMember;
+    private long memberSize;
+    private boolean closed;
+
+    GzipChannel(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.output = ByteBuffer.allocate(Math.max(bufferSize, 64)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sets the compression level (0-9) used from the next member on.
+     */
+    void setLevel(int level) {
+        deflater.setLevel(level);
+    }
+
+    /**
+     * Sets the {@link Deflater} strategy used from the next member on.
+     */
+    void setStrategy(int strategy) {
+        deflater.setStrategy(strategy);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!inMember) {
+            startMember();
+        }
+        int n = src.remaining();
+        if (src.hasArray()) {
+            deflate(src.array(), src.arrayOffset() + src.position(), n);
+            src.position(src.limit());
+        } else {
+            if (inputArray == null) {
+                inputArray = new byte[8192];
+            }
+            while (src.hasRemaining()) {
+                int len = Math.min(src.remaining(), inputArray.length);
+                src.get(inputArray, 0, len);
+                deflate(inputArray, 0, len);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Ends the current member and writes out everything compressed so far.
+     *
+     * @return the compressed length of the member including its header and trailer
+     */
+    long finish() throws IOException {
+        if (!inMember) {
+            startMember();
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflateToOutput();
+        }
+        if (output.remaining() < 8) {
+            flushOutput();
+        }
+        output.putInt((int) crc.getValue());
+        output.putInt((int) deflater.getBytesRead());
+        flushOutput();
+        deflater.reset();
+        crc.reset();
+        inMember = false;
+        long size = memberSize;
+        memberSize = 0;
+        return size;
+    }
+
+    /**
+     * Abandons a partly written member so that it isn't completed by a later write or {@link #close()}. Compressed
+     * data already passed to the underlying channel can't be taken back.
+     */
+    void discardMember() {
+        deflater.reset();
+        crc.reset();
+        output.clear();
+        inMember = false;
+        memberSize = 0;
+    }
+
+    private void startMember() throws IOException {
+        if (output.remaining() < HEADER.length) {
+            flushOutput();
+        }
+        output.put(HEADER);
+        inMember = true;
+    }
+
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflateToOutput();
+        }
+    }
+
+    private void deflateToOutput() throws IOException {
+        int n = deflater.deflate(output.array(), output.arrayOffset() + output.position(), output.remaining());
+        output.position(output.position() + n);
+        if (!output.hasRemaining()) {
+            flushOutput();
+        }
+    }
+
+    private void flushOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            memberSize += channel.write(output);
+        }
+        output.clear();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * Finishes any partly written member then closes the underlying channel.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                if (inMember) {
+                    finish();
+                }
+            } finally {
+                closed = true;
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+}
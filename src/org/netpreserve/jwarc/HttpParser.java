@@ -24,10 +24,23 @@ public class HttpParser {
     private boolean finished;
     private byte[] buf = new byte[256];
     private int bufPos = 0;
+    private int lastPush;
+    private int lastPushState;
+    private byte[] scratch;
     private int endOfText;
     private int major;
     private int minor;
     private int status;
+    private boolean lenient;
+    private boolean anyMessage; // neither requestOnly() nor responseOnly() was called
+    private int anomalies;
+    private boolean seenStartLine;
+    private boolean lineTruncated;
+    private long headerBytes;
+    private String pendingName;
+    private String pendingValue;
+    private static final int MAX_LENIENT_LINE = 64 * 1024;
+    private static final int MAX_LENIENT_HEADER = 1024 * 1024;
 
 	public interface Handler {
 		void version(int major, int minor);
@@ -62,6 +75,13 @@ public class HttpParser {
         endOfText = 0;
         position = 0;
         finished = false;
+        anomalies = 0;
+        seenStartLine = false;
+        lineTruncated = false;
+        headerBytes = 0;
+        pendingName = null;
+        pendingValue = null;
+        anyMessage = true;
     }
 
     public boolean isFinished() {
@@ -74,16 +94,60 @@ public class HttpParser {
 
     public void requestOnly() {
         cs = http_en_http_request;
+        anyMessage = false;
     }
 
     public void responseOnly() {
         cs = http_en_http_response;
+        anyMessage = false;
+    }
+
+    /**
+     * Switches to a lenient mode for real-world data. It tolerates bare LF line endings, junk or incomplete start
+     * lines, missing reason phrases, malformed header lines and over-long headers (lines are truncated at 64 KiB
+     * and the header block ends after 1 MiB). Instead of failing each problem is counted in {@link #anomalies()}.
+     * A lenient parser never enters the error state. Unless restricted to requests or responses it takes a start line
+     * beginning with an HTTP version to be a status line and anything else to be a request line.
+     */
+    public void lenient() {
+        lenient = true;
+    }
+
+    /**
+     * The number of problems the lenient mode has worked around in the current message.
+     */
+    public int anomalies() {
+        return anomalies;
+    }
+
+    public void parse(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset();
+            int p = parse(buffer.array(), offset + buffer.position(), offset + buffer.limit());
+            buffer.position(p - offset);
+            return;
+        }
+        // direct and read-only buffers are parsed a chunk at a time from a copy
+        if (scratch == null) {
+            scratch = new byte[8192];
+        }
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            int length = Math.min(buffer.remaining(), scratch.length);
+            buffer.get(scratch, 0, length);
+            int consumed = parse(scratch, 0, length);
+            buffer.position(start + consumed);
+            if (consumed < length) break;
+        }
     }
 
     @SuppressWarnings({"UnusedAssignment", "ConstantConditions", "ConditionalBreakInInfiniteLoop"})
-    public void parse(ByteBuffer data) {
-        int p = data.position();
-        int pe = data.limit();
+    private int parse(byte[] data, int p, int pe) {
+        if (lenient) {
+            return parseLenient(data, p, pe);
+        }
+        int start = p;
+        lastPush = -1;
 
         
 // line 90 "HttpParser.java"
@@ -120,9 +184,9 @@ case 1:
 				break;
 
 			_mid = _lower + ((_upper-_lower) >> 1);
-			if ( ( data.get(p)) < _http_trans_keys[_mid] )
+			if ( ( data[p]) < _http_trans_keys[_mid] )
 				_upper = _mid - 1;
-			else if ( ( data.get(p)) > _http_trans_keys[_mid] )
+			else if ( ( data[p]) > _http_trans_keys[_mid] )
 				_lower = _mid + 1;
 			else {
 				_trans += (_mid - _keys);
@@ -143,9 +207,9 @@ case 1:
 				break;
 
 			_mid = _lower + (((_upper-_lower) >> 1) & ~1);
-			if ( ( data.get(p)) < _http_trans_keys[_mid] )
+			if ( ( data[p]) < _http_trans_keys[_mid] )
 				_upper = _mid - 2;
-			else if ( ( data.get(p)) > _http_trans_keys[_mid+1] )
+			else if ( ( data[p]) > _http_trans_keys[_mid+1] )
 				_lower = _mid + 2;
 			else {
 				_trans += ((_mid - _keys)>>1);
@@ -168,7 +232,7 @@ case 1:
 			{
 	case 0:
 // line 9 "HttpParser.rl"
-	{ push(data.get(p)); }
+	{ p = pushRun(data, p, pe); }
 	break;
 	case 1:
 // line 10 "HttpParser.rl"
@@ -176,15 +240,15 @@ case 1:
 	break;
 	case 2:
 // line 11 "HttpParser.rl"
-	{ major = major * 10 + data.get(p) - '0'; }
+	{ major = major * 10 + data[p] - '0'; }
 	break;
 	case 3:
 // line 12 "HttpParser.rl"
-	{ minor = minor * 10 + data.get(p) - '0'; }
+	{ minor = minor * 10 + data[p] - '0'; }
 	break;
 	case 4:
 // line 13 "HttpParser.rl"
-	{ status = status * 10 + data.get(p) - '0'; }
+	{ status = status * 10 + data[p] - '0'; }
 	break;
 	case 5:
 // line 14 "HttpParser.rl"
@@ -244,8 +308,8 @@ case 5:
 
 // line 144 "HttpParser.rl"
 
-        position += p - data.position();
-        data.position(p);
+        position += p - start;
+        return p;
     }
 
     public void parse(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
@@ -259,8 +323,12 @@ case 5:
             }
             buffer.compact();
             int n = channel.read(buffer);
-            if (n < 0) throw new EOFException("state=" + cs);
+            if (n < 0 && !lenient) throw new EOFException("state=" + cs);
             buffer.flip();
+            if (n < 0) {
+                lenientEndOfInput();
+                break;
+            }
         }
     }
 
@@ -271,6 +339,242 @@ case 5:
         buf[bufPos++] = b;
     }
 
+    /**
+     * Pushes the byte at p and, if it was consumed by a pure self-loop, the rest of the run. See WarcParser.pushRun.
+     */
+    private int pushRun(byte[] data, int p, int pe) {
+        boolean[] loop = pushLoops[cs];
+        if (lastPush != p - 1 || lastPushState != cs || loop == null || !loop[data[p] & 0xff]) {
+            push(data[p]);
+            lastPush = p;
+            lastPushState = cs;
+            return p;
+        }
+        int end = ParserTables.runEnd(data, p + 1, pe, loop, pushLoopsAscii[cs]);
+        int length = end - p;
+        if (bufPos + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bufPos + length));
+        }
+        System.arraycopy(data, p, buf, bufPos, length);
+        bufPos += length;
+        lastPush = end - 1;
+        return end - 1;
+    }
+
+    /**
+     * Parses line by line without the state machine, accepting anything that can reasonably be interpreted as an
+     * HTTP message. Problems are counted in {@link #anomalies()} rather than reported as errors.
+     */
+    private int parseLenient(byte[] data, int p, int pe) {
+        int start = p;
+        while (p < pe && !finished) {
+            int lineEnd = p;
+            while (lineEnd < pe && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int length = Math.min(lineEnd - p, MAX_LENIENT_LINE - bufPos);
+            if (length > 0) {
+                if (bufPos + length > buf.length) {
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bufPos + length));
+                }
+                System.arraycopy(data, p, buf, bufPos, length);
+                bufPos += length;
+            }
+            if (lineEnd - p > length) {
+                lineTruncated = true;
+            }
+            headerBytes += lineEnd - p;
+            if (lineEnd == pe) {
+                p = pe;
+                if (headerBytes > MAX_LENIENT_HEADER) {
+                    anomalies++;
+                    finishLenient();
+                }
+                break;
+            }
+            p = lineEnd + 1;
+            headerBytes++;
+            lenientLine();
+        }
+        position += p - start;
+        return p;
+    }
+
+    private void lenientLine() {
+        int end = bufPos;
+        if (end > 0 && buf[end - 1] == '\r') {
+            end--;
+        } else {
+            anomalies++; // bare LF
+        }
+        if (lineTruncated) {
+            anomalies++;
+            lineTruncated = false;
+        }
+        bufPos = 0;
+        if (!seenStartLine) {
+            if (end == 0) {
+                anomalies++; // blank line before the start line
+                return;
+            }
+            seenStartLine = true;
+            if (cs == http_en_http_request || (anyMessage && !isVersion(0, end))) {
+                lenientRequestLine(end);
+            } else {
+                lenientStatusLine(end);
+            }
+        } else if (end == 0) {
+            finishLenient();
+        } else if (buf[0] == ' ' || buf[0] == '\t') {
+            if (pendingName == null) {
+                anomalies++; // continuation line without a field to continue
+            } else {
+                String continuation = trimmed(0, end);
+                if (!continuation.isEmpty()) {
+                    pendingValue = pendingValue.isEmpty() ? continuation : pendingValue + " " + continuation;
+                }
+            }
+        } else {
+            int colon = 0;
+            while (colon < end && buf[colon] != ':') {
+                colon++;
+            }
+            String name = colon < end ? trimmed(0, colon) : "";
+            if (name.isEmpty()) {
+                anomalies++; // junk line
+                return;
+            }
+            if (name.length() != colon) {
+                anomalies++; // whitespace around the field name
+            }
+            flushPendingField();
+            pendingName = name;
+            pendingValue = trimmed(colon + 1, end);
+        }
+        if (headerBytes > MAX_LENIENT_HEADER) {
+            anomalies++;
+            finishLenient();
+        }
+    }
+
+    private void lenientStatusLine(int end) {
+        int i = lenientVersion(0, end);
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        int digits = 0;
+        while (i + digits < end && digits < 3 && buf[i + digits] >= '0' && buf[i + digits] <= '9') {
+            status = status * 10 + buf[i + digits] - '0';
+            digits++;
+        }
+        if (digits < 3) {
+            anomalies++; // junk status code
+        }
+        handler.status(status);
+        i += digits;
+        if (i < end && buf[i] >= '0' && buf[i] <= '9') {
+            anomalies++; // status code longer than three digits
+            while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+                i++;
+            }
+        }
+        if (i == end) {
+            anomalies++; // missing reason phrase
+        }
+        handler.reason(trimmed(i, end));
+    }
+
+    private void lenientRequestLine(int end) {
+        int i = 0;
+        while (i < end && buf[i] != ' ' && buf[i] != '\t') {
+            i++;
+        }
+        handler.method(new String(buf, 0, i, US_ASCII));
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        int targetStart = i;
+        while (i < end && buf[i] != ' ' && buf[i] != '\t') {
+            i++;
+        }
+        handler.target(new String(buf, targetStart, i - targetStart, ISO_8859_1));
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t')) {
+            i++;
+        }
+        if (i == end) {
+            anomalies++; // HTTP/0.9 style request line without a version
+            handler.version(0, 9);
+        } else {
+            lenientVersion(i, end);
+        }
+    }
+
+    /**
+     * Parses an HTTP/x.y version, reporting 1.0 if there isn't one. Returns the position after it.
+     */
+    private int lenientVersion(int i, int end) {
+        if (isVersion(i, end)) {
+            major = buf[i + 5] - '0';
+            minor = buf[i + 7] - '0';
+            handler.version(major, minor);
+            return i + 8;
+        }
+        anomalies++; // junk version
+        handler.version(1, 0);
+        while (i < end && buf[i] != ' ' && buf[i] != '\t') {
+            i++;
+        }
+        return i;
+    }
+
+    private boolean isVersion(int i, int end) {
+        return end - i >= 8 && (buf[i] == 'H' || buf[i] == 'h') && (buf[i + 1] == 'T' || buf[i + 1] == 't')
+                && (buf[i + 2] == 'T' || buf[i + 2] == 't') && (buf[i + 3] == 'P' || buf[i + 3] == 'p')
+                && buf[i + 4] == '/' && buf[i + 5] >= '0' && buf[i + 5] <= '9' && buf[i + 6] == '.'
+                && buf[i + 7] >= '0' && buf[i + 7] <= '9';
+    }
+
+    private String trimmed(int start, int end) {
+        while (start < end && (buf[start] == ' ' || buf[start] == '\t')) {
+            start++;
+        }
+        while (end > start && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) {
+            end--;
+        }
+        return new String(buf, start, end - start, ISO_8859_1);
+    }
+
+    private void flushPendingField() {
+        if (pendingName != null) {
+            handler.name(pendingName);
+            handler.value(pendingValue);
+            pendingName = null;
+            pendingValue = null;
+        }
+    }
+
+    private void lenientEndOfInput() {
+        anomalies++; // message truncated inside the header
+        if (bufPos > 0) {
+            push((byte) '\r');
+            lenientLine();
+        }
+        if (!seenStartLine) {
+            seenStartLine = true;
+            if (cs == http_en_http_request) {
+                lenientRequestLine(0);
+            } else {
+                lenientStatusLine(0);
+            }
+        }
+        finishLenient();
+    }
+
+    private void finishLenient() {
+        flushPendingField();
+        finished = true;
+    }
+
     
 // line 276 "HttpParser.java"
 private static byte[] init__http_actions_0()
@@ -440,4 +744,11 @@ static final int http_en_http_response = 1;
 
 
 // line 173 "HttpParser.rl"
+
+    // bytes on which each state loops back to itself with only the push action, declared after the tables it's
+    // derived from so they're initialised first
+    private static final boolean[][] pushLoops = new ParserTables(_http_actions, _http_key_offsets,
+            _http_trans_keys, _http_single_lengths, _http_range_lengths, _http_index_offsets, _http_indicies,
+            _http_trans_targs, _http_trans_actions).selfLoops(0);
+    private static final boolean[] pushLoopsAscii = ParserTables.coversVisibleAscii(pushLoops);
 }
\ No newline at end of file
@@ -10,8 +10,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HttpRequest extends HttpMessage {
     private final String method;
@@ -53,15 +52,23 @@ public class HttpRequest extends HttpMessage {
         ParseHandler handler = new ParseHandler();
         HttpParser parser = new HttpParser(handler);
         parser.requestOnly();
+        AtomicLong anomalies = channel instanceof LengthedBody ? ((LengthedBody) channel).httpAnomalies : null;
+        if (anomalies != null) {
+            parser.lenient();
+        }
         parser.parse(channel, buffer);
-        MessageHeaders headers = new MessageHeaders(handler.headerMap);
+        if (anomalies != null && parser.anomalies() > 0) {
+            anomalies.addAndGet(parser.anomalies());
+        }
+        MessageHeaders headers = handler.headers();
         long contentLength = headers.sole("Content-Length").map(Long::parseLong).orElse(-1L);
         LengthedBody body = LengthedBody.create(channel, buffer, contentLength);
         return new HttpRequest(handler.method, handler.target, handler.version, headers, body);
     }
 
     private static class ParseHandler implements HttpParser.Handler {
-        Map<String,List<String>> headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final List<String> names = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
         private MessageVersion version;
         private String name;
         private String method;
@@ -79,7 +86,12 @@ public class HttpRequest extends HttpMessage {
 
         @Override
         public void value(String value) {
-            headerMap.computeIfAbsent(name, name -> new ArrayList<>()).add(value);
+            names.add(name);
+            values.add(value);
+        }
+
+        MessageHeaders headers() {
+            return new MessageHeaders(names.toArray(new String[0]), values.toArray(new String[0]));
         }
 
         @Override
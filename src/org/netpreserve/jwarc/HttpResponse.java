@@ -10,8 +10,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HttpResponse extends HttpMessage {
     private final int status;
@@ -36,17 +35,31 @@ public class HttpResponse extends HttpMessage {
     }
 
     public static HttpResponse parse(ReadableByteChannel channel) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        // a response inside a record body borrows from the pool of the reader that produced it
+        BufferPool pool = channel instanceof LengthedBody ? ((LengthedBody) channel).pool : BufferPool.UNPOOLED;
+        ByteBuffer buffer = pool.acquireBuffer();
         buffer.flip();
         ParseHandler handler = new ParseHandler();
         HttpParser parser = new HttpParser(handler);
         parser.responseOnly();
-        parser.parse(channel, buffer);
-        MessageHeaders headers = new MessageHeaders(handler.headerMap);
+        AtomicLong anomalies = channel instanceof LengthedBody ? ((LengthedBody) channel).httpAnomalies : null;
+        if (anomalies != null) {
+            parser.lenient();
+        }
+        try {
+            parser.parse(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            pool.releaseBuffer(buffer);
+            throw e;
+        }
+        if (anomalies != null && parser.anomalies() > 0) {
+            anomalies.addAndGet(parser.anomalies());
+        }
+        MessageHeaders headers = handler.headers();
         long contentLength;
         MessageBody body;
-        if (headers.sole("Tranfer-Encoding").orElse("").equalsIgnoreCase("chunked")) {
-            body = new ChunkedBody(channel, buffer);
+        if (isChunked(headers)) {
+            body = ChunkedBody.createPooled(channel, buffer, pool);
         } else {
             if (channel instanceof LengthedBody) {
                 LengthedBody lengthed = (LengthedBody) channel;
@@ -54,11 +67,24 @@ public class HttpResponse extends HttpMessage {
             } else {
                 contentLength = headers.sole("Content-Length").map(Long::parseLong).orElse(0L);
             }
-            body = LengthedBody.create(channel, buffer, contentLength);
+            body = LengthedBody.createPooled(channel, buffer, contentLength, pool);
         }
         return new HttpResponse(handler.status, handler.reason, handler.version, headers, body);
     }
 
+    /**
+     * Whether chunked is the final transfer coding, which is the only position it's allowed in.
+     */
+    private static boolean isChunked(MessageHeaders headers) {
+        List<String> values = headers.all("Transfer-Encoding");
+        if (values.isEmpty()) {
+            return false;
+        }
+        String value = values.get(values.size() - 1);
+        String last = value.substring(value.lastIndexOf(',') + 1).trim();
+        return last.equalsIgnoreCase("chunked");
+    }
+
     /**
      * The 3 digit response status code.
      */
@@ -74,7 +100,8 @@ public class HttpResponse extends HttpMessage {
     }
 
     private static class ParseHandler implements HttpParser.Handler {
-        Map<String,List<String>> headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final List<String> names = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
         private MessageVersion version;
         private String name;
         private int status;
@@ -92,7 +119,12 @@ public class HttpResponse extends HttpMessage {
 
         @Override
         public void value(String value) {
-            headerMap.computeIfAbsent(name, name -> new ArrayList<>()).add(value);
+            names.add(name);
+            values.add(value);
+        }
+
+        MessageHeaders headers() {
+            return new MessageHeaders(names.toArray(new String[0]), values.toArray(new String[0]));
         }
 
         @Override
@@ -2,8 +2,10 @@ package org.netpreserve.jwarc;
 
 import javax.net.ssl.*;
 import javax.security.auth.x500.X500Principal;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -17,7 +19,11 @@ import java.security.cert.X509Certificate;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
 class HttpServer {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
     private final ServerSocket serverSocket;
     private final CertificateAuthority ca;
     private final Handler handler;
@@ -130,7 +136,42 @@ class HttpServer {
         try {
             OutputStream outputStream = socket.getOutputStream();
             outputStream.write(response.serializeHeader());
-            IOUtils.copy(response.body().stream(), outputStream);
+            MessageBody body = response.body();
+            IOUtils.copy(body.stream(), outputStream, body.pool().bufferSize());
+        } catch (SSLProtocolException | SocketException e) {
+            socket.close(); // client probably closed
+        }
+    }
+
+    /**
+     * Sends a response with a body of unknown length using chunked transfer encoding. The response should carry a
+     * "Transfer-Encoding: chunked" header and no body of its own.
+     */
+    static void sendChunked(Socket socket, HttpResponse response, InputStream body) throws IOException {
+        try {
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 8192 + 16);
+            outputStream.write(response.serializeHeader());
+            byte[] buffer = new byte[8192];
+            boolean eof = false;
+            while (!eof) {
+                // fill the buffer first so small reads from the body don't each become a chunk
+                int length = 0;
+                while (length < buffer.length) {
+                    int n = body.read(buffer, length, buffer.length - length);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += n;
+                }
+                if (length > 0) {
+                    outputStream.write((Integer.toHexString(length) + "\r\n").getBytes(US_ASCII));
+                    outputStream.write(buffer, 0, length);
+                    outputStream.write(CRLF);
+                }
+            }
+            outputStream.write(LAST_CHUNK);
+            outputStream.flush();
         } catch (SSLProtocolException | SocketException e) {
             socket.close(); // client probably closed
         }
@@ -15,6 +15,22 @@ import java.nio.channels.ReadableByteChannel;
 import java.util.Objects;
 
 class IOUtils {
+    /**
+     * A channel with no data, read from when the buffer already holds the entire input. Refilling a buffer from it
+     * leaves the buffer untouched, so it may be read-only.
+     */
+    static final ReadableByteChannel END_OF_INPUT = new ReadableByteChannel() {
+        public int read(ByteBuffer dst) {
+            return -1;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    };
 
     /**
      * Transfers as many bytes as possible from src to dst.
@@ -47,6 +63,23 @@ class IOUtils {
         return n;
     }
 
+    /**
+     * Compacts the buffer, reads more data into it from the channel and flips it ready for reading again.
+     * <p>
+     * When the channel is {@link #END_OF_INPUT} the buffer is left as it is.
+     *
+     * @return the number of bytes read, or -1 at the end of input.
+     */
+    static int refill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        if (channel == END_OF_INPUT) {
+            return -1;
+        }
+        buffer.compact();
+        int n = channel.read(buffer);
+        buffer.flip();
+        return n;
+    }
+
     static ReadableByteChannel prefixChannel(ByteBuffer prefix, ReadableByteChannel channel) {
         return new ReadableByteChannel() {
             @Override
@@ -74,7 +107,11 @@ class IOUtils {
     }
 
     static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
-        byte[] buffer = new byte[8192];
+        copy(inputStream, outputStream, 8192);
+    }
+
+    static void copy(InputStream inputStream, OutputStream outputStream, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
         while (true) {
             int n = inputStream.read(buffer);
             if (n < 0) break;
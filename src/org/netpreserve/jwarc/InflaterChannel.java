@@ -0,0 +1,117 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates the HTTP "deflate" content coding. That's meant to be a zlib stream but some servers send raw deflate
+ * data instead so the zlib header is detected and skipped when present. The Adler-32 trailer is not checked.
+ */
+class InflaterChannel implements ReadableByteChannel {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final Inflater inflater;
+    private boolean seenHeader;
+    private boolean closed;
+    private byte[] inputArray;
+    private byte[] outputArray;
+    private int inputEnd; // buffer position the inflater's current input ends at
+
+    /**
+     * @param buffer input buffer in read mode, which may already hold the start of the stream
+     */
+    InflaterChannel(ReadableByteChannel channel, ByteBuffer buffer, BufferPool pool) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.pool = pool;
+        this.inflater = pool.acquireInflater();
+    }
+
+    @Override
+    public int read(ByteBuffer dest) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!seenHeader) {
+            while (buffer.remaining() < 2 && IOUtils.refill(channel, buffer) >= 0) {
+                // keep reading
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            if (buffer.remaining() >= 2) {
+                int cmf = buffer.get(buffer.position()) & 0xff;
+                int flg = buffer.get(buffer.position() + 1) & 0xff;
+                if ((cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && (cmf << 8 | flg) % 31 == 0 && (flg & 0x20) == 0) {
+                    buffer.position(buffer.position() + 2);
+                }
+            }
+            seenHeader = true;
+        }
+        if (inflater.finished()) {
+            return -1;
+        }
+        while (true) {
+            if (inflater.needsInput()) {
+                if (!buffer.hasRemaining() && IOUtils.refill(channel, buffer) < 0) {
+                    throw new EOFException("reading deflate stream");
+                }
+                if (inputArray == null && !buffer.hasArray()) {
+                    inputArray = new byte[8192];
+                }
+                inputEnd = GunzipChannel.setInput(inflater, buffer, inputArray);
+            }
+            try {
+                int n;
+                if (dest.hasArray()) {
+                    n = inflater.inflate(dest.array(), dest.arrayOffset() + dest.position(), dest.remaining());
+                    dest.position(dest.position() + n);
+                } else {
+                    if (outputArray == null) {
+                        outputArray = new byte[8192];
+                    }
+                    n = inflater.inflate(outputArray, 0, Math.min(outputArray.length, dest.remaining()));
+                    dest.put(outputArray, 0, n);
+                }
+                buffer.position(inputEnd - inflater.getRemaining());
+                if (n > 0 || !dest.hasRemaining()) {
+                    return n;
+                }
+                if (inflater.finished()) {
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("deflate stream needs a preset dictionary");
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pool.releaseInflater(inflater);
+            channel.close();
+        }
+    }
+}
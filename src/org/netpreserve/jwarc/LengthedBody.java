@@ -10,9 +10,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A message body with a known length.
@@ -23,6 +26,9 @@ class LengthedBody extends MessageBody {
     private final long size;
     long position = 0;
     private boolean open = true;
+    BufferPool pool = BufferPool.UNPOOLED; // used when parsing a message nested in this body
+    AtomicLong httpAnomalies; // when set nested HTTP messages are parsed leniently and their anomalies counted here
+    private boolean ownsBuffer;
 
     private LengthedBody(ReadableByteChannel channel, ByteBuffer buffer, long size) {
         this.channel = channel;
@@ -37,6 +43,16 @@ class LengthedBody extends MessageBody {
         return new LengthedBody(channel, buffer, size);
     }
 
+    /**
+     * Creates a body whose buffer was acquired from the given pool and is returned to it on close.
+     */
+    static LengthedBody createPooled(ReadableByteChannel channel, ByteBuffer buffer, long size, BufferPool pool) {
+        LengthedBody body = create(channel, buffer, size);
+        body.pool = pool;
+        body.ownsBuffer = true;
+        return body;
+    }
+
     @Override
     public int read(ByteBuffer dest) throws IOException {
         if (!open) {
@@ -71,6 +87,9 @@ class LengthedBody extends MessageBody {
     }
 
     public void consume() throws IOException {
+        if (!open && ownsBuffer) {
+            return; // our buffer has gone back to the pool and whatever we're nested in will skip the rest
+        }
         while (true) {
             // if remaining body is in the buffer we only need to advance the buffer position
             long remaining = size - position;
@@ -99,6 +118,47 @@ class LengthedBody extends MessageBody {
         }
     }
 
+    /**
+     * Whether the body is read directly from a file, so that {@link #transferTo(WritableByteChannel)} can have the
+     * kernel copy it.
+     */
+    boolean isFileBacked() {
+        return channel instanceof FileChannel;
+    }
+
+    /**
+     * Writes the rest of a file backed body to the target using {@link FileChannel#transferTo}, which avoids copying
+     * the data through user space where the operating system supports it.
+     *
+     * @return the number of bytes written
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        long written = 0;
+        if (buffer.hasRemaining() && position < size) {
+            ByteBuffer buffered = buffer.duplicate();
+            buffered.limit(buffered.position() + (int) Math.min(buffered.remaining(), size - position));
+            while (buffered.hasRemaining()) {
+                written += target.write(buffered);
+            }
+            buffer.position(buffered.position());
+            position += written;
+        }
+        FileChannel file = (FileChannel) channel;
+        while (position < size) {
+            long n = file.transferTo(file.position(), size - position, target);
+            if (n == 0 && file.position() >= file.size()) {
+                throw new EOFException("expected " + (size - position) + " more bytes in file");
+            }
+            file.position(file.position() + n);
+            position += n;
+            written += n;
+        }
+        return written;
+    }
+
     @Override
     public boolean isOpen() {
         return open && channel.isOpen();
@@ -106,7 +166,12 @@ class LengthedBody extends MessageBody {
 
     @Override
     public void close() throws IOException {
-        open = false;
+        if (open) {
+            open = false;
+            if (ownsBuffer) {
+                pool.releaseBuffer(buffer);
+            }
+        }
     }
 
     /**
@@ -125,6 +190,11 @@ class LengthedBody extends MessageBody {
         return position;
     }
 
+    @Override
+    BufferPool pool() {
+        return pool;
+    }
+
     /**
      * Returns an InputStream for reading this body.
      */
@@ -163,11 +233,9 @@ class LengthedBody extends MessageBody {
                 return -1;
             }
             while (!buffer.hasRemaining()) {
-                buffer.compact();
-                if (channel.read(buffer) < 0) {
+                if (IOUtils.refill(channel, buffer) < 0) {
                     throw new EOFException();
                 }
-                buffer.flip();
             }
             position++;
             return buffer.get();
@@ -189,8 +257,9 @@ class LengthedBody extends MessageBody {
             if (relative >= 0 && relative < buffer.remaining()) {
                 buffer.position((int) (buffer.position() + relative));
             } else {
+                // the underlying channel is ahead of us by whatever we had buffered
+                seekable.position(seekable.position() - buffer.remaining() + relative);
                 buffer.position(buffer.limit());
-                seekable.position(seekable.position() + relative);
             }
             this.position += relative;
             return this;
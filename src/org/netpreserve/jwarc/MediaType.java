@@ -11,6 +11,7 @@
 package org.netpreserve.jwarc;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 // line 59 "MediaType.rl"
@@ -159,6 +160,17 @@ static final int media_type_start = 1;
 
 
 // line 67 "MediaType.rl"
+    private static final int CACHE_SIZE = 512; // must be a power of two
+    private static final int MAX_CACHED_LENGTH = 256;
+    private static final int MAX_BASES = 1024;
+
+    /*
+     * Recently parsed strings in a direct-mapped table. Threads may race to replace a slot but as entries only have
+     * final fields any entry a thread sees is complete, so no locking is needed.
+     */
+    private static final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+    private static final ConcurrentHashMap<String, MediaType> bases = new ConcurrentHashMap<>(); // by type/subtype
+
     public static MediaType HTML = MediaType.parse("text/html");
     public static MediaType HTTP = MediaType.parse("application/http");
     public static MediaType HTTP_REQUEST = MediaType.parse("application/http;msgtype=request");
@@ -166,15 +178,41 @@ static final int media_type_start = 1;
     public static MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
     public static MediaType WARC_FIELDS = MediaType.parse("application/warc-fields");
 
+    static {
+        // so comparing a base() against these constants is usually an identity check
+        for (MediaType type : new MediaType[]{HTML, HTTP, OCTET_STREAM, WARC_FIELDS}) {
+            bases.put(type.type + "/" + type.subtype, type);
+        }
+    }
+
     private final String type;
     private final String subtype;
     private final Map<String,String> parameters;
     private int hashCode;
+    private MediaType base; // memoized without locking as racing threads compute equal values
 
     /**
      * Parses a media type string.
+     * <p>
+     * Results are cached, as most records share a handful of Content-Type values, so the same instance may be
+     * returned for repeated calls.
      */
     public static MediaType parse(String string) {
+        if (string.length() > MAX_CACHED_LENGTH) {
+            return parseUncached(string);
+        }
+        int hash = string.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CacheEntry entry = cache[slot];
+        if (entry != null && entry.string.equals(string)) {
+            return entry.mediaType;
+        }
+        MediaType mediaType = parseUncached(string);
+        cache[slot] = new CacheEntry(string, mediaType);
+        return mediaType;
+    }
+
+    private static MediaType parseUncached(String string) {
         Map<String,String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         int p = 0;
         int pe = string.length();
@@ -484,10 +522,44 @@ case 5:
      * The base type and subtype without any parameters.
      */
     public MediaType base() {
-        return new MediaType(type, subtype, Collections.emptyMap());
+        MediaType base = this.base;
+        if (base == null) {
+            base = intern(parameters.isEmpty() ? this : new MediaType(type, subtype, Collections.emptyMap()));
+            this.base = base;
+        }
+        return base;
+    }
+
+    /**
+     * Returns the shared instance of a parameterless type. Lookups are by the exact type and subtype strings rather
+     * than {@link #equals(Object)} so that base() always keeps the casing it was parsed with.
+     */
+    private static MediaType intern(MediaType type) {
+        String key = type.type + "/" + type.subtype;
+        MediaType existing = bases.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (bases.size() < MAX_BASES) {
+            existing = bases.putIfAbsent(key, type);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return type;
     }
 
     private static boolean validToken(String s) {
         return s.chars().allMatch(tokenChars::get);
     }
+
+    private static class CacheEntry {
+        final String string;
+        final MediaType mediaType;
+
+        CacheEntry(String string, MediaType mediaType) {
+            this.string = string;
+            this.mediaType = mediaType;
+        }
+    }
 }
@@ -27,9 +27,21 @@ public abstract class MessageBody implements ReadableByteChannel {
     }
 
     public void consume() throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(8192);
-        while (read(buffer) >= 0) {
-            buffer.clear();
+        BufferPool pool = pool();
+        ByteBuffer buffer = pool.acquireBuffer();
+        try {
+            while (read(buffer) >= 0) {
+                buffer.clear();
+            }
+        } finally {
+            pool.releaseBuffer(buffer);
         }
     }
+
+    /**
+     * The pool this body's buffers come from, which also sets the size of the buffers used to consume or copy it.
+     */
+    BufferPool pool() {
+        return BufferPool.UNPOOLED;
+    }
 }
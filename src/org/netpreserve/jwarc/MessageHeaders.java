@@ -9,56 +9,140 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 import static java.util.Collections.emptyList;
 
 public class MessageHeaders {
     private Map<String,List<String>> map;
 
+    // flat name/value pairs in the order they were parsed, used instead of the map until it's asked for
+    private final String[] names;
+    private final String[] values;
+
+    // when created by the WARC parser the values are kept as raw UTF-8 bytes and only decoded as they're looked up
+    private final byte[] valueBytes;
+    private final int[] valueEnds;
+
     MessageHeaders(Map<String, List<String>> map) {
         map.replaceAll((name, values) -> Collections.unmodifiableList(values));
         this.map = Collections.unmodifiableMap(map);
+        this.names = null;
+        this.values = null;
+        this.valueBytes = null;
+        this.valueEnds = null;
+    }
+
+    MessageHeaders(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+        this.valueBytes = null;
+        this.valueEnds = null;
+    }
+
+    /**
+     * @param valueBytes the values of every field concatenated together
+     * @param valueEnds  the end offset in valueBytes of each field's value
+     */
+    MessageHeaders(String[] names, byte[] valueBytes, int[] valueEnds) {
+        this.names = names;
+        this.values = new String[names.length];
+        this.valueBytes = valueBytes;
+        this.valueEnds = valueEnds;
+    }
+
+    private String value(int i) {
+        String value = values[i];
+        if (value == null) {
+            int start = i == 0 ? 0 : valueEnds[i - 1];
+            value = new String(valueBytes, start, valueEnds[i] - start, StandardCharsets.UTF_8);
+            values[i] = value;
+        }
+        return value;
     }
 
     /**
      * Returns the value of a single-valued header field. Throws an exception if there are more than one.
      */
     public Optional<String> sole(String name) {
-        List<String> values = all(name);
-        if (values.size() > 1) {
-            throw new IllegalArgumentException("record has " + values.size() + " " + name + " headers");
+        if (names == null) {
+            List<String> values = all(name);
+            if (values.size() > 1) {
+                throw new IllegalArgumentException("record has " + values.size() + " " + name + " headers");
+            }
+            return values.stream().findFirst();
         }
-        return values.stream().findFirst();
+        int found = -1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                if (found >= 0) {
+                    throw new IllegalArgumentException("record has " + all(name).size() + " " + name + " headers");
+                }
+                found = i;
+            }
+        }
+        return found < 0 ? Optional.empty() : Optional.of(value(found));
     }
 
     /**
      * Returns the first value of a header field.
      */
     public Optional<String> first(String name) {
-        return all(name).stream().findFirst();
+        if (names == null) {
+            return all(name).stream().findFirst();
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return Optional.of(value(i));
+            }
+        }
+        return Optional.empty();
     }
 
     /**
      * Returns all the values of a header field.
      */
     public List<String> all(String name) {
-        return map.getOrDefault(name, emptyList());
+        if (names == null) {
+            return map.getOrDefault(name, emptyList());
+        }
+        List<String> list = emptyList();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                if (list.isEmpty()) {
+                    list = Collections.singletonList(value(i));
+                } else {
+                    if (list.size() == 1) list = new ArrayList<>(list);
+                    list.add(value(i));
+                }
+            }
+        }
+        return list.size() > 1 ? Collections.unmodifiableList(list) : list;
     }
 
     /**
      * Returns a map of header fields to their values.
      */
     public Map<String,List<String>> map() {
+        if (map == null) {
+            Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < names.length; i++) {
+                map.computeIfAbsent(names[i], n -> new ArrayList<>()).add(value(i));
+            }
+            map.replaceAll((name, values) -> Collections.unmodifiableList(values));
+            this.map = Collections.unmodifiableMap(map);
+        }
         return map;
     }
 
     @Override
     public String toString() {
-        return map.toString();
+        return map().toString();
     }
 
     /**
@@ -106,7 +190,7 @@ public class MessageHeaders {
     }
 
     public void appendTo(Appendable appendable) throws IOException {
-        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+        for (Map.Entry<String, List<String>> entry : map().entrySet()) {
             String name = entry.getKey();
             for (String value : entry.getValue()) {
                 appendable.append(name).append(": ").append(value).append("\r\n");
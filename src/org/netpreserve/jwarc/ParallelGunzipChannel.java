@@ -0,0 +1,280 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a multi-member gzip file using a pool of worker threads.
+ * <p>
+ * The file is scanned ahead of the reader for bytes that look like gzip member headers and each candidate is
+ * inflated speculatively on the executor. Members are delivered strictly in file order: the offset at which one member
+ * ends is the only place the next one may begin, so a candidate that turns out to lie inside another member's
+ * compressed data is simply discarded. Like {@link GunzipChannel} a single read never returns bytes from more than one
+ * member.
+ * <p>
+ * To bound memory use each worker buffers at most {@link #MEMBER_BUFFER_LIMIT} bytes of output. The rest of a larger
+ * member is inflated by the reading thread as it is consumed.
+ */
+class ParallelGunzipChannel implements ReadableByteChannel {
+    static final int MEMBER_BUFFER_LIMIT = 1024 * 1024;
+    private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+    private static final long SCAN_AHEAD_LIMIT = 64 * 1024 * 1024;
+    private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    private final FileChannel channel;
+    private final ExecutorService executor;
+    private final long startPosition;
+    private final long size;
+    private final int maxInFlight;
+    private final NavigableMap<Long, Future<Member>> pending = new TreeMap<>();
+    private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_CHUNK_SIZE);
+    private long scanPosition;
+    private long nextMember;
+    private Member current;
+
+    ParallelGunzipChannel(FileChannel channel, ExecutorService executor, long startPosition) throws IOException {
+        this.channel = channel;
+        this.executor = executor;
+        this.startPosition = startPosition;
+        this.size = channel.size();
+        this.maxInFlight = Runtime.getRuntime().availableProcessors() * 2;
+        this.scanPosition = startPosition;
+        this.nextMember = startPosition;
+    }
+
+    @Override
+    public int read(ByteBuffer dest) throws IOException {
+        while (current == null) {
+            if (nextMember >= size) {
+                return -1;
+            }
+            current = take(nextMember);
+            advanceIfFinished();
+        }
+
+        int n = current.read(dest);
+        advanceIfFinished();
+        return n;
+    }
+
+    private void advanceIfFinished() {
+        if (current.finished && !current.hasBufferedData()) {
+            nextMember = current.end;
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Returns the member starting at the given offset, either from a speculative task or by starting to inflate it on
+     * the calling thread if no worker picked it up.
+     */
+    private Member take(long offset) throws IOException {
+        // any candidates before this offset were false positives inside the previous member
+        Iterator<Map.Entry<Long, Future<Member>>> it = pending.headMap(offset, false).entrySet().iterator();
+        while (it.hasNext()) {
+            discard(it.next().getValue());
+            it.remove();
+        }
+
+        fill();
+
+        Future<Member> future = pending.remove(offset);
+        if (future == null) {
+            Member member = new Member(offset);
+            try {
+                member.fill(0);
+            } catch (IOException e) {
+                member.close();
+                throw e;
+            }
+            return member;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Scans ahead for candidate member headers and submits them until enough work is in flight.
+     */
+    private void fill() throws IOException {
+        while (pending.size() < maxInFlight && scanPosition < size
+                && scanPosition - nextMember < SCAN_AHEAD_LIMIT) {
+            scanBuffer.clear();
+            int n = channel.read(scanBuffer, scanPosition);
+            if (n < 0) {
+                scanPosition = size;
+                break;
+            }
+
+            // a candidate is the magic, the deflate method and a flags byte with the reserved bits clear
+            byte[] bytes = scanBuffer.array();
+            for (int i = 0; i + 3 < n; i++) {
+                if (bytes[i] == 0x1f && (bytes[i + 1] & 0xff) == 0x8b && bytes[i + 2] == 8
+                        && (bytes[i + 3] & 0xe0) == 0) {
+                    submit(scanPosition + i);
+                }
+            }
+
+            // overlap chunks so a header straddling the boundary is still seen
+            boolean last = scanPosition + n >= size;
+            scanPosition += last ? n : Math.max(n - 3, 1);
+        }
+    }
+
+    private void submit(long offset) {
+        if (offset < nextMember || pending.containsKey(offset)) return;
+        pending.put(offset, executor.submit(() -> {
+            Member member = new Member(offset);
+            try {
+                member.fill(MEMBER_BUFFER_LIMIT);
+            } catch (IOException | RuntimeException e) {
+                member.close();
+                throw e;
+            }
+            return member;
+        }));
+    }
+
+    private static void discard(Future<Member> future) {
+        // never interrupt: an interrupted FileChannel read closes the channel
+        if (!future.cancel(false) && future.isDone()) {
+            try {
+                future.get().close();
+            } catch (InterruptedException | ExecutionException e) {
+                // a false candidate failing is expected
+            }
+        }
+    }
+
+    /**
+     * The number of compressed bytes consumed. Only advances at member boundaries.
+     */
+    long inputPosition() {
+        return nextMember - startPosition;
+    }
+
+    /**
+     * Discards all buffered and speculative work and continues from a new member offset.
+     *
+     * @param inputPosition the new value for {@link #inputPosition()}
+     */
+    void reset(long inputPosition) {
+        for (Future<Member> future : pending.values()) {
+            discard(future);
+        }
+        pending.clear();
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        nextMember = startPosition + inputPosition;
+        scanPosition = nextMember;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reset(inputPosition());
+        channel.close();
+    }
+
+    /**
+     * A single gzip member being inflated. The output is buffered up to a limit after which the remainder is streamed
+     * directly into the reader's buffer.
+     */
+    private class Member {
+        private final long start;
+        private final GunzipChannel gunzip;
+        private byte[] data = new byte[INPUT_BUFFER_SIZE];
+        private int length;
+        private int pos;
+        private boolean finished;
+        private long end;
+
+        Member(long start) {
+            this.start = start;
+            ByteBuffer inputBuffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+            inputBuffer.flip();
+            this.gunzip = new GunzipChannel(new PositionalChannel(channel, start), inputBuffer);
+        }
+
+        /**
+         * Inflates into our buffer until the member ends or at least limit bytes are buffered.
+         */
+        void fill(int limit) throws IOException {
+            while (!finished && length < limit) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                ByteBuffer dest = ByteBuffer.wrap(data, length, data.length - length);
+                inflate(dest);
+                length = dest.position();
+            }
+        }
+
+        int read(ByteBuffer dest) throws IOException {
+            if (hasBufferedData()) {
+                int n = Math.min(dest.remaining(), length - pos);
+                dest.put(data, pos, n);
+                pos += n;
+                return n;
+            }
+            data = null;
+            return inflate(dest);
+        }
+
+        private int inflate(ByteBuffer dest) throws IOException {
+            int n = gunzip.read(dest);
+            if (n < 0) {
+                throw new IOException("unexpected end of gzip member at " + start);
+            }
+            if (gunzip.atMemberBoundary()) {
+                finished = true;
+                end = start + gunzip.inputPosition();
+            }
+            return n;
+        }
+
+        boolean hasBufferedData() {
+            return data != null && pos < length;
+        }
+
+        void close() {
+            data = null;
+            try {
+                gunzip.close();
+            } catch (IOException e) {
+                // closing the positional channel does nothing
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzipped WARC records, compressing them on a pool of worker threads.
+ * <p>
+ * Each record is read into memory by the calling thread and then compressed into its own gzip member by the executor.
+ * Members are appended to the channel strictly in the order they were submitted, by whichever worker completes the
+ * next one in line. The future returned for each record completes with the offset it was written at once it's in the
+ * channel.
+ * <p>
+ * At most maxInFlightBytes of uncompressed records are held in memory at once and {@link #write(WarcRecord)} blocks
+ * until earlier records are written out when the limit would be exceeded. A record larger than the limit, or with a
+ * body of unknown length, is compressed and written directly on the calling thread once the records before it are
+ * out.
+ */
+public class ParallelWarcWriter implements Closeable {
+    static final long DEFAULT_MAX_IN_FLIGHT = 64 * 1024 * 1024;
+    private static final byte[] TRAILER = new byte[]{'\r', '\n', '\r', '\n'};
+
+    private final WritableByteChannel channel;
+    private final ExecutorService executor;
+    private final long maxInFlightBytes;
+    private final Object lock = new Object();
+    private final Queue<Member> pending = new ArrayDeque<>(); // guarded by lock
+    private final Queue<Compressor> compressors = new ConcurrentLinkedQueue<>(); // reused across records
+    private long inFlightBytes; // guarded by lock
+    private long position; // guarded by lock
+    private IOException failure; // guarded by lock
+    private GzipChannel directChannel;
+    private volatile int level = Deflater.DEFAULT_COMPRESSION;
+    private volatile int strategy = Deflater.DEFAULT_STRATEGY;
+    private volatile boolean closed;
+
+    public ParallelWarcWriter(WritableByteChannel channel, ExecutorService executor) throws IOException {
+        this(channel, executor, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxInFlightBytes limit on the total size of uncompressed records waiting to be compressed or written
+     */
+    public ParallelWarcWriter(WritableByteChannel channel, ExecutorService executor, long maxInFlightBytes)
+            throws IOException {
+        this.channel = channel;
+        this.executor = executor;
+        this.maxInFlightBytes = maxInFlightBytes;
+        if (channel instanceof SeekableByteChannel) {
+            position = ((SeekableByteChannel) channel).position();
+        }
+    }
+
+    /**
+     * Queues a record to be compressed and written.
+     * <p>
+     * The record's body is fully read before this method returns so the record need not remain valid afterwards.
+     *
+     * @return a future that completes with the byte position the record was written to
+     * @throws IOException if reading the record fails or an earlier record couldn't be compressed or written
+     */
+    public synchronized CompletableFuture<Long> write(WarcRecord record) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        byte[] header = record.serializeHeader();
+        long bodySize = record.body().size();
+        long length = header.length + bodySize + TRAILER.length;
+        if (bodySize < 0 || length > maxInFlightBytes) {
+            return writeDirect(record, header);
+        }
+
+        reserve(length);
+        byte[] data = new byte[(int) length];
+        try {
+            System.arraycopy(header, 0, data, 0, header.length);
+            ByteBuffer body = ByteBuffer.wrap(data, header.length, (int) bodySize);
+            while (body.hasRemaining()) {
+                if (record.body().read(body) < 0) {
+                    throw new EOFException("record body ended " + body.remaining() + " bytes early");
+                }
+            }
+            System.arraycopy(TRAILER, 0, data, data.length - TRAILER.length, TRAILER.length);
+        } catch (IOException | RuntimeException e) {
+            release(length);
+            throw e;
+        }
+
+        Member member = new Member(length);
+        synchronized (lock) {
+            pending.add(member);
+        }
+        int level = this.level;
+        int strategy = this.strategy;
+        try {
+            executor.execute(() -> compress(member, data, level, strategy));
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                // it's the newest member so dropping it doesn't disturb the order of the others
+                if (pending.remove(member)) {
+                    inFlightBytes -= length;
+                }
+                member.future.completeExceptionally(e);
+                lock.notifyAll();
+            }
+            throw new IOException("compression task rejected", e);
+        }
+        return member.future;
+    }
+
+    private void compress(Member member, byte[] data, int level, int strategy) {
+        byte[] compressed = null;
+        Throwable error = null;
+        try {
+            compressed = compress(data, level, strategy);
+        } catch (Throwable e) {
+            error = e;
+        }
+        synchronized (lock) {
+            member.compressed = compressed;
+            member.error = error;
+            member.done = true;
+            drain();
+        }
+    }
+
+    private byte[] compress(byte[] data, int level, int strategy) throws IOException {
+        Compressor compressor = compressors.poll();
+        if (compressor == null) {
+            compressor = new Compressor();
+        }
+        boolean reusable = false;
+        try {
+            byte[] compressed = compressor.compress(data, level, strategy);
+            reusable = true;
+            return compressed;
+        } finally {
+            if (reusable) {
+                compressors.add(compressor);
+                // close() may have already ended the idle compressors while this one was in use
+                if (closed) {
+                    endCompressors();
+                }
+            } else {
+                // it may still hold part of the failed member
+                compressor.end();
+            }
+        }
+    }
+
+    private void endCompressors() throws IOException {
+        Compressor compressor;
+        while ((compressor = compressors.poll()) != null) {
+            compressor.end();
+        }
+    }
+
+    /**
+     * Appends any finished members at the head of the queue to the channel.
+     */
+    private void drain() {
+        Member member;
+        while ((member = pending.peek()) != null && member.done && failure == null) {
+            pending.remove();
+            inFlightBytes -= member.length;
+            try {
+                if (member.error != null) {
+                    throw member.error instanceof IOException ? (IOException) member.error :
+                            new IOException("compressing record", member.error);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(member.compressed);
+                long offset = position;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer);
+                }
+                member.future.complete(offset);
+            } catch (IOException e) {
+                fail(e);
+                member.future.completeExceptionally(e);
+            }
+        }
+        lock.notifyAll();
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        for (Member member : pending) {
+            member.future.completeExceptionally(e);
+        }
+        pending.clear();
+        inFlightBytes = 0;
+    }
+
+    /**
+     * Waits until there's room for another record of the given size.
+     */
+    private void reserve(long length) throws IOException {
+        synchronized (lock) {
+            while (inFlightBytes > 0 && inFlightBytes + length > maxInFlightBytes && failure == null) {
+                await();
+            }
+            checkFailure();
+            inFlightBytes += length;
+        }
+    }
+
+    private void release(long length) {
+        synchronized (lock) {
+            inFlightBytes -= length;
+        }
+    }
+
+    private CompletableFuture<Long> writeDirect(WarcRecord record, byte[] header) throws IOException {
+        synchronized (lock) {
+            awaitPending();
+            if (directChannel == null) {
+                directChannel = new GzipChannel(channel, 8192);
+            }
+            directChannel.setLevel(level);
+            directChannel.setStrategy(strategy);
+            long offset = position;
+            try {
+                directChannel.write(ByteBuffer.wrap(header));
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                MessageBody body = record.body();
+                while (body.read(buffer) >= 0) {
+                    buffer.flip();
+                    directChannel.write(buffer);
+                    buffer.clear();
+                }
+                directChannel.write(ByteBuffer.wrap(TRAILER));
+                position += directChannel.finish();
+            } catch (IOException | RuntimeException e) {
+                // the channel now holds a partial member so nothing more can be written after it, and it mustn't be
+                // given a trailer by close()
+                directChannel.discardMember();
+                fail(e instanceof IOException ? (IOException) e : new IOException("writing record", e));
+                throw e;
+            }
+            return CompletableFuture.completedFuture(offset);
+        }
+    }
+
+    /**
+     * Waits for every record submitted so far to be compressed and written.
+     *
+     * @throws IOException if any record couldn't be compressed or written
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            awaitPending();
+        }
+    }
+
+    private void awaitPending() throws IOException {
+        while (!pending.isEmpty() && failure == null) {
+            await();
+        }
+        checkFailure();
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("an earlier record failed to write", failure);
+        }
+    }
+
+    /**
+     * Sets the gzip compression level (0-9, or {@link Deflater#DEFAULT_COMPRESSION}) for subsequent records.
+     */
+    public void setCompressionLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Sets the gzip compression strategy ({@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     * {@link Deflater#HUFFMAN_ONLY}) for subsequent records.
+     */
+    public void setCompressionStrategy(int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED &&
+                strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("invalid compression strategy: " + strategy);
+        }
+        this.strategy = strategy;
+    }
+
+    /**
+     * Returns the number of bytes written to the channel so far, which is where the next record will be written if
+     * no others are still in progress.
+     * <p>
+     * If the underlying channel is not seekable the returned value will be relative to the position the channel
+     * was in when the writer was created.
+     */
+    public long position() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    /**
+     * Waits for all submitted records to be written then closes the channel. The executor is not shut down.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flush();
+        } finally {
+            // compressors still in use by tasks left running after a failure are ended as they're returned
+            endCompressors();
+            if (directChannel != null) {
+                directChannel.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+
+    private static class Compressor {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final GzipChannel gzip = new GzipChannel(Channels.newChannel(output), 8192);
+
+        byte[] compress(byte[] data, int level, int strategy) throws IOException {
+            output.reset();
+            gzip.setLevel(level);
+            gzip.setStrategy(strategy);
+            gzip.write(ByteBuffer.wrap(data));
+            gzip.finish();
+            return output.toByteArray();
+        }
+
+        void end() throws IOException {
+            gzip.discardMember();
+            gzip.close();
+        }
+    }
+
+    private static class Member {
+        private final long length;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private byte[] compressed;
+        private Throwable error;
+        private boolean done;
+
+        Member(long length) {
+            this.length = length;
+        }
+    }
+}
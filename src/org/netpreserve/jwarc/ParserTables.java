@@ -0,0 +1,133 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+/**
+ * Helpers for analysing the tables Ragel generates for the table-driven (-T0) parsers.
+ */
+class ParserTables {
+    private final byte[] actions;
+    private final short[] keyOffsets;
+    private final char[] transKeys;
+    private final byte[] singleLengths;
+    private final byte[] rangeLengths;
+    private final short[] indexOffsets;
+    private final byte[] indicies;
+    private final byte[] transTargs;
+    private final byte[] transActions;
+
+    ParserTables(byte[] actions, short[] keyOffsets, char[] transKeys, byte[] singleLengths, byte[] rangeLengths,
+                 short[] indexOffsets, byte[] indicies, byte[] transTargs, byte[] transActions) {
+        this.actions = actions;
+        this.keyOffsets = keyOffsets;
+        this.transKeys = transKeys;
+        this.singleLengths = singleLengths;
+        this.rangeLengths = rangeLengths;
+        this.indexOffsets = indexOffsets;
+        this.indicies = indicies;
+        this.transTargs = transTargs;
+        this.transActions = transActions;
+    }
+
+    /**
+     * Finds the bytes on which each state loops back to itself performing only the given action and nothing else.
+     * A parser that has just taken such a transition can consume any following bytes in the set in a tight loop
+     * rather than one table lookup at a time, without changing its behaviour.
+     *
+     * @param action the action's number, which is its position in the order the actions were defined
+     * @return for each state, a lookup indexed by unsigned byte value or null if the state has no such loop
+     */
+    boolean[][] selfLoops(int action) {
+        boolean[][] loops = new boolean[keyOffsets.length][];
+        for (int state = 1; state < keyOffsets.length; state++) {
+            for (int b = 0; b < 256; b++) {
+                int trans = transition(state, (byte) b);
+                if (transTargs[trans] == state && isOnlyAction(transActions[trans], action)) {
+                    if (loops[state] == null) loops[state] = new boolean[256];
+                    loops[state][b] = true;
+                }
+            }
+        }
+        return loops;
+    }
+
+    /**
+     * Finds which of the loops returned by {@link #selfLoops(int)} include every visible ASCII character (0x21-0x7e)
+     * and so can be scanned with {@link #runEnd(byte[], int, int, boolean[], boolean)} eight bytes at a time.
+     */
+    static boolean[] coversVisibleAscii(boolean[][] loops) {
+        boolean[] covers = new boolean[loops.length];
+        for (int state = 0; state < loops.length; state++) {
+            if (loops[state] == null) continue;
+            covers[state] = true;
+            for (int b = 0x21; b <= 0x7e; b++) {
+                if (!loops[state][b]) {
+                    covers[state] = false;
+                    break;
+                }
+            }
+        }
+        return covers;
+    }
+
+    /**
+     * Returns the position of the first byte at or after p that isn't in the loop set, or pe if there is none.
+     * When the set covers visible ASCII, whole words are tested at once (SWAR) and only words containing a space,
+     * control character or non-ASCII byte fall back to the per-byte lookup.
+     */
+    static int runEnd(byte[] data, int p, int pe, boolean[] loop, boolean visibleAscii) {
+        if (visibleAscii) {
+            while (p + 8 <= pe) {
+                long word = getLong(data, p);
+                // high bit set in any byte that's below 0x21 or above 0x7e
+                long outside = ((word - 0x2121212121212121L) | (word + 0x0101010101010101L) | word)
+                        & 0x8080808080808080L;
+                if (outside != 0) break;
+                p += 8;
+            }
+        }
+        while (p < pe && loop[data[p] & 0xff]) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Reads eight bytes as a word. The test above looks at each byte separately so their order doesn't matter.
+     */
+    private static long getLong(byte[] data, int p) {
+        return (data[p] & 0xffL) | (data[p + 1] & 0xffL) << 8 | (data[p + 2] & 0xffL) << 16 |
+                (data[p + 3] & 0xffL) << 24 | (data[p + 4] & 0xffL) << 32 | (data[p + 5] & 0xffL) << 40 |
+                (data[p + 6] & 0xffL) << 48 | (data[p + 7] & 0xffL) << 56;
+    }
+
+    private boolean isOnlyAction(int offset, int action) {
+        return offset != 0 && actions[offset] == 1 && actions[offset + 1] == action;
+    }
+
+    /**
+     * Looks up a transition the same way the generated code does, including comparing keys as signed bytes.
+     */
+    private int transition(int state, byte key) {
+        int keys = keyOffsets[state];
+        int trans = indexOffsets[state];
+        int singles = singleLengths[state];
+        for (int i = 0; i < singles; i++) {
+            if (key == transKeys[keys + i]) {
+                return indicies[trans + i];
+            }
+        }
+        keys += singles;
+        trans += singles;
+        int ranges = rangeLengths[state];
+        for (int i = 0; i < ranges; i++) {
+            if (key >= transKeys[keys + i * 2] && key <= transKeys[keys + i * 2 + 1]) {
+                return indicies[trans + i];
+            }
+        }
+        return indicies[trans + ranges];
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Reads a file ahead of the consumer on a background thread.
+ * <p>
+ * On slow or network-mounted storage a reader otherwise waits for each read to complete before it can parse or
+ * decompress the data. This channel keeps up to a configurable window of data in flight in a ring of buffers so I/O
+ * overlaps with processing. Wrap a file with it and pass it to a {@link WarcReader}:
+ * <pre>
+ * new WarcReader(new ReadAheadChannel(FileChannel.open(path)))
+ * </pre>
+ * Seeking forward within the data already read ahead just discards it, otherwise the read-ahead restarts from the new
+ * position. The file is read with positional reads so its own position is not used.
+ */
+public class ReadAheadChannel implements SeekableByteChannel {
+    public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNKS = 4;
+    private static final int MIN_CHUNK_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final Object lock = new Object();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+    private ByteBuffer current;
+    private long position;
+    private long fetchPosition;
+    private int generation;
+    private boolean eof;
+    private boolean closed;
+    private IOException error;
+
+    public ReadAheadChannel(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param channel    the file to read starting from its current position
+     * @param windowSize how many bytes to read ahead of the consumer
+     */
+    public ReadAheadChannel(FileChannel channel, int windowSize) throws IOException {
+        this.channel = channel;
+        this.position = channel.position();
+        this.fetchPosition = position;
+        int chunkSize = Math.max(windowSize / CHUNKS, MIN_CHUNK_SIZE);
+        for (int i = 0; i < CHUNKS; i++) {
+            free.add(ByteBuffer.allocateDirect(chunkSize));
+        }
+        Thread thread = new Thread(this::fetchLoop, "jwarc read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void fetchLoop() {
+        while (true) {
+            ByteBuffer buffer;
+            long offset;
+            int fetchGeneration;
+            synchronized (lock) {
+                while (!closed && (free.isEmpty() || eof)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                buffer = free.poll();
+                offset = fetchPosition;
+                fetchGeneration = generation;
+            }
+
+            buffer.clear();
+            int n;
+            IOException readError = null;
+            try {
+                n = channel.read(buffer, offset);
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                n = -1;
+                readError = e;
+            }
+
+            synchronized (lock) {
+                if (fetchGeneration != generation) {
+                    // the consumer seeked elsewhere while we were reading
+                    free.add(buffer);
+                    continue;
+                }
+                if (n < 0) {
+                    free.add(buffer);
+                    eof = true;
+                    error = readError;
+                } else {
+                    buffer.flip();
+                    ready.add(buffer);
+                    fetchPosition += n;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        synchronized (lock) {
+            while (current == null || !current.hasRemaining()) {
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                if (current != null) {
+                    free.add(current);
+                    current = null;
+                    lock.notifyAll();
+                }
+                if (!ready.isEmpty()) {
+                    current = ready.poll();
+                } else if (error != null) {
+                    throw error;
+                } else if (eof) {
+                    return -1;
+                } else {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            int n = IOUtils.transfer(current, dst);
+            position += n;
+            return n;
+        }
+    }
+
+    @Override
+    public long position() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        synchronized (lock) {
+            if (closed) throw new ClosedChannelException();
+
+            // skip forward through data we've already read if we can
+            long skip = newPosition - position;
+            if (skip >= 0 && skip <= fetchPosition - position) {
+                while (skip > 0) {
+                    if (current == null || !current.hasRemaining()) {
+                        if (current != null) free.add(current);
+                        current = ready.poll();
+                    }
+                    int n = (int) Math.min(skip, current.remaining());
+                    current.position(current.position() + n);
+                    skip -= n;
+                }
+            } else {
+                if (current != null) free.add(current);
+                current = null;
+                free.addAll(ready);
+                ready.clear();
+                fetchPosition = newPosition;
+                eof = false;
+                error = null;
+                generation++;
+            }
+            position = newPosition;
+            lock.notifyAll();
+        }
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        synchronized (lock) {
+            return !closed;
+        }
+    }
+
+    /**
+     * Stops reading ahead and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Function;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes records to a series of WARC files, starting a new one when the current file grows too large, holds too many
+ * records or gets too old.
+ * <p>
+ * File names come from a template in which {@code {timestamp}} is replaced by the 17 digit UTC time the file was
+ * opened and {@code {serial}} by a five digit counter, for example {@code "crawl-{timestamp}-{serial}.warc.gz"}. Names
+ * already in use are skipped by moving on to the next serial number or, without one, the next millisecond. Each
+ * file is written with an {@code .open} suffix and renamed once it's complete, so readers can tell finished files
+ * apart. A warcinfo record is written at the start of every file.
+ * <p>
+ * Limits are checked before each record is written so a file may exceed the size limit by one record. Writes are
+ * serialized but closing and renaming a finished file happens after the lock is released so other threads are only
+ * held up by the opening of the next file and its warcinfo record.
+ */
+public class RotatingWarcWriter implements Closeable {
+    static final long DEFAULT_MAX_FILE_SIZE = 1_000_000_000;
+    static final String OPEN_SUFFIX = ".open";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS")
+            .withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+    private final String template;
+    private final WarcCompression compression;
+    Clock clock = Clock.systemUTC();
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    private long maxRecords = Long.MAX_VALUE;
+    private Duration maxAge;
+    private Function<String, Warcinfo> warcinfo = filename -> new Warcinfo.Builder().filename(filename).build();
+    private int serial;
+    private Segment current;
+    private boolean closed;
+
+    /**
+     * @param directory where to create the WARC files
+     * @param template  file name template containing {@code {timestamp}} and/or {@code {serial}}
+     */
+    public RotatingWarcWriter(Path directory, String template, WarcCompression compression) {
+        if (!template.contains("{timestamp}") && !template.contains("{serial}")) {
+            throw new IllegalArgumentException("template must contain {timestamp} or {serial}: " + template);
+        }
+        this.directory = directory;
+        this.template = template;
+        this.compression = compression;
+    }
+
+    /**
+     * Adds a record to the current file, first starting a new file if the current one has reached a limit.
+     */
+    public void write(WarcRecord record) throws IOException {
+        Segment finished = null;
+        Throwable failure = null;
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                if (current != null && isFull(current)) {
+                    finished = current;
+                    current = null;
+                }
+                if (current == null) {
+                    current = open();
+                }
+                current.writer.write(record);
+                current.records++;
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (finished != null) {
+                finish(finished, failure);
+            }
+        }
+    }
+
+    /**
+     * Finishes a file, attaching any failure to the pending exception instead if there is one so neither is lost.
+     */
+    private static void finish(Segment segment, Throwable pending) throws IOException {
+        try {
+            segment.finish();
+        } catch (IOException | RuntimeException e) {
+            if (pending == null) throw e;
+            pending.addSuppressed(e);
+        }
+    }
+
+    private boolean isFull(Segment segment) {
+        return segment.writer.position() >= maxFileSize || segment.records >= maxRecords ||
+                (maxAge != null && Duration.between(segment.opened, clock.instant()).compareTo(maxAge) >= 0);
+    }
+
+    private Segment open() throws IOException {
+        Instant now = clock.instant();
+        Instant timestamp = now;
+        while (true) {
+            String filename = template.replace("{timestamp}", TIMESTAMP_FORMAT.format(timestamp))
+                    .replace("{serial}", String.format("%05d", serial++));
+            Path path = directory.resolve(filename);
+            Path openPath = directory.resolve(filename + OPEN_SUFFIX);
+            FileChannel channel = null;
+            if (!Files.exists(path)) {
+                try {
+                    channel = FileChannel.open(openPath, WRITE, CREATE_NEW);
+                } catch (FileAlreadyExistsException e) {
+                    // fall through
+                }
+            }
+            if (channel == null) {
+                // taken by an earlier file, perhaps one rotated out within the same millisecond, so move on to the
+                // next serial number or, without one, the next millisecond
+                if (!template.contains("{serial}")) {
+                    timestamp = timestamp.plusMillis(1);
+                }
+                continue;
+            }
+            Segment segment;
+            try {
+                segment = new Segment(path, openPath, channel, new WarcWriter(channel, compression), now);
+                if (warcinfo != null) {
+                    segment.writer.write(warcinfo.apply(filename));
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Finishes the current file. The next record written will start a new one.
+     */
+    public void rotate() throws IOException {
+        Segment finished;
+        synchronized (this) {
+            finished = current;
+            current = null;
+        }
+        if (finished != null) {
+            finished.finish();
+        }
+    }
+
+    /**
+     * Sets the size in bytes after which a new file is started. The default is 1 GB.
+     */
+    public synchronized void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Sets the number of records (not counting the warcinfo record) after which a new file is started.
+     */
+    public synchronized void setMaxRecords(long maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Sets how long after a file was opened a new one is started, or null for no limit. The age is only checked when
+     * a record is written.
+     */
+    public synchronized void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Sets the function that creates the warcinfo record at the start of each file from its name, or null to write no
+     * warcinfo records. The default records just the filename.
+     */
+    public synchronized void setWarcinfo(Function<String, Warcinfo> warcinfo) {
+        this.warcinfo = warcinfo;
+    }
+
+    /**
+     * Returns the path the current file will have once it's finished or null if no file is open.
+     */
+    public synchronized Path currentPath() {
+        return current == null ? null : current.path;
+    }
+
+    /**
+     * Finishes the current file.
+     */
+    @Override
+    public void close() throws IOException {
+        Segment finished;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            finished = current;
+            current = null;
+        }
+        if (finished != null) {
+            finished.finish();
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final Path openPath;
+        private final FileChannel channel;
+        private final WarcWriter writer;
+        private final Instant opened;
+        private long records;
+
+        Segment(Path path, Path openPath, FileChannel channel, WarcWriter writer, Instant opened) {
+            this.path = path;
+            this.openPath = openPath;
+            this.channel = channel;
+            this.writer = writer;
+            this.opened = opened;
+        }
+
+        /**
+         * Syncs and closes the file then renames it to drop the open suffix.
+         */
+        void finish() throws IOException {
+            try {
+                channel.force(true);
+            } finally {
+                writer.close();
+            }
+            Files.move(openPath, path, ATOMIC_MOVE);
+        }
+    }
+}
@@ -33,14 +33,22 @@ public class WarcParser {
     private int entryState;
     private int cs;
     private long position;
-    private byte[] buf = new byte[256];
+    // holds the values of the fields parsed so far followed by the name or value currently being parsed, copied
+    // from the input as they're consumed
+    private byte[] buf = new byte[1024];
+    private int bufStart;
     private int bufPos;
     private int endOfText;
     private int major;
     private int minor;
     private String name;
     private String protocol = "WARC";
-    private Map<String,List<String>> headerMap;
+    private String[] fieldNames = new String[32];
+    private int[] valueEnds = new int[32];
+    private int fieldCount;
+    private int lastPush;
+    private int lastPushState;
+    private byte[] scratch;
     private static final DateTimeFormatter arcTimeFormat = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
     public static WarcParser newWarcFieldsParser() {
@@ -59,14 +67,15 @@ public class WarcParser {
     public void reset() {
         cs = entryState;
         position = 0;
+        bufStart = 0;
         bufPos = 0;
         endOfText = 0;
         major = 0;
         minor = 0;
         name = null;
-        headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        if (buf.length > 4096) {
-            buf = new byte[4096];
+        fieldCount = 0;
+        if (buf.length > 1024 * 1024) {
+            buf = new byte[1024]; // only release the buffer if a record had really huge headers
         }
     }
 
@@ -78,9 +87,30 @@ public class WarcParser {
         return cs == warc_error;
     }
 
-    public void parse(ByteBuffer data) {
-        int p = data.position();
-        int pe = data.limit();
+    public void parse(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset();
+            int p = parse(buffer.array(), offset + buffer.position(), offset + buffer.limit());
+            buffer.position(p - offset);
+            return;
+        }
+        // direct and read-only buffers are parsed a chunk at a time from a copy
+        if (scratch == null) {
+            scratch = new byte[8192];
+        }
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            int length = Math.min(buffer.remaining(), scratch.length);
+            buffer.get(scratch, 0, length);
+            int consumed = parse(scratch, 0, length);
+            buffer.position(start + consumed);
+            if (consumed < length) break;
+        }
+    }
+
+    private int parse(byte[] data, int p, int pe) {
+        int start = p;
+        lastPush = -1;
 
         
 // line 87 "WarcParser.java"
@@ -117,9 +147,9 @@ case 1:
 				break;
 
 			_mid = _lower + ((_upper-_lower) >> 1);
-			if ( ( data.get(p)) < _warc_trans_keys[_mid] )
+			if ( ( data[p]) < _warc_trans_keys[_mid] )
 				_upper = _mid - 1;
-			else if ( ( data.get(p)) > _warc_trans_keys[_mid] )
+			else if ( ( data[p]) > _warc_trans_keys[_mid] )
 				_lower = _mid + 1;
 			else {
 				_trans += (_mid - _keys);
@@ -140,9 +170,9 @@ case 1:
 				break;
 
 			_mid = _lower + (((_upper-_lower) >> 1) & ~1);
-			if ( ( data.get(p)) < _warc_trans_keys[_mid] )
+			if ( ( data[p]) < _warc_trans_keys[_mid] )
 				_upper = _mid - 2;
-			else if ( ( data.get(p)) > _warc_trans_keys[_mid+1] )
+			else if ( ( data[p]) > _warc_trans_keys[_mid+1] )
 				_lower = _mid + 2;
 			else {
 				_trans += ((_mid - _keys)>>1);
@@ -165,15 +195,15 @@ case 1:
 			{
 	case 0:
 // line 26 "WarcParser.rl"
-	{ push(data.get(p)); }
+	{ p = pushRun(data, p, pe); }
 	break;
 	case 1:
 // line 27 "WarcParser.rl"
-	{ major = major * 10 + data.get(p) - '0'; }
+	{ major = major * 10 + data[p] - '0'; }
 	break;
 	case 2:
 // line 28 "WarcParser.rl"
-	{ minor = minor * 10 + data.get(p) - '0'; }
+	{ minor = minor * 10 + data[p] - '0'; }
 	break;
 	case 3:
 // line 29 "WarcParser.rl"
@@ -182,7 +212,7 @@ case 1:
 	case 4:
 // line 31 "WarcParser.rl"
 	{
-    if (bufPos > 0) {
+    if (bufPos > bufStart) {
         bufPos = endOfText;
         push((byte)' ');
     }
@@ -191,23 +221,21 @@ case 1:
 	case 5:
 // line 38 "WarcParser.rl"
 	{
-    name = new String(buf, 0, bufPos, US_ASCII);
-    bufPos = 0;
+    name = FieldNames.intern(buf, bufStart, bufPos - bufStart);
+    bufPos = bufStart;
+    endOfText = bufStart;
 }
 	break;
 	case 6:
 // line 43 "WarcParser.rl"
 	{
-    String value = new String(buf, 0, endOfText, UTF_8);
-    headerMap.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
-    bufPos = 0;
-    endOfText = 0;
+    addField(name, endOfText);
 }
 	break;
 	case 7:
 // line 50 "WarcParser.rl"
 	{
-    String url = new String(buf, 0, bufPos, ISO_8859_1);
+    String url = new String(buf, bufStart, bufPos - bufStart, ISO_8859_1);
     if (url.startsWith("filedesc://")) {
         setHeader("WARC-Type", "warcinfo");
         setHeader("WARC-Filename", url.substring("filedesc://".length()));
@@ -221,37 +249,37 @@ case 1:
         setHeader("Content-Type", "application/http;msgtype=response");
         setHeader("WARC-Target-URI", url);
     }
-    bufPos = 0;
+    bufPos = bufStart;
 }
 	break;
 	case 8:
 // line 68 "WarcParser.rl"
 	{
-    setHeader("WARC-IP-Address", new String(buf, 0, bufPos, US_ASCII));
-    bufPos = 0;
+    setHeader("WARC-IP-Address", new String(buf, bufStart, bufPos - bufStart, US_ASCII));
+    bufPos = bufStart;
 }
 	break;
 	case 9:
 // line 73 "WarcParser.rl"
 	{
-    String arcDate = new String(buf, 0, bufPos, US_ASCII);
+    String arcDate = new String(buf, bufStart, bufPos - bufStart, US_ASCII);
     Instant instant = LocalDateTime.parse(arcDate, arcTimeFormat).toInstant(ZoneOffset.UTC);
     setHeader("WARC-Date", instant.toString());
-    bufPos = 0;
+    bufPos = bufStart;
 }
 	break;
 	case 10:
 // line 80 "WarcParser.rl"
 	{
     // TODO
-    bufPos = 0;
+    bufPos = bufStart;
 }
 	break;
 	case 11:
 // line 85 "WarcParser.rl"
 	{
-    setHeader("Content-Length", new String(buf, 0, bufPos, US_ASCII));
-    bufPos = 0;
+    setHeader("Content-Length", new String(buf, bufStart, bufPos - bufStart, US_ASCII));
+    bufPos = bufStart;
 }
 	break;
 	case 12:
@@ -288,8 +316,8 @@ case 5:
 
 // line 207 "WarcParser.rl"
 
-        position += p - data.position();
-        data.position(p);
+        position += p - start;
+        return p;
     }
 
     public boolean parse(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
@@ -301,15 +329,13 @@ case 5:
             if (isError()) {
                 throw new ParsingException("invalid WARC record at position " + position);
             }
-            buffer.compact();
-            int n = channel.read(buffer);
+            int n = IOUtils.refill(channel, buffer);
             if (n < 0) {
                 if (position > 0) {
                     throw new EOFException();
                 }
                 return false;
             }
-            buffer.flip();
         }
     }
 
@@ -320,8 +346,38 @@ case 5:
         buf[bufPos++] = b;
     }
 
+    /**
+     * Pushes the byte at p. If the transition that consumed it was a pure self-loop (the previous byte was pushed in
+     * this same state and this byte loops too) then the following bytes that also loop are pushed in one go instead
+     * of one transition each. Returns the position of the last byte consumed.
+     */
+    private int pushRun(byte[] data, int p, int pe) {
+        boolean[] loop = pushLoops[cs];
+        if (lastPush != p - 1 || lastPushState != cs || loop == null || !loop[data[p] & 0xff]) {
+            push(data[p]);
+            lastPush = p;
+            lastPushState = cs;
+            return p;
+        }
+        int end = ParserTables.runEnd(data, p + 1, pe, loop, pushLoopsAscii[cs]);
+        int length = end - p;
+        if (bufPos + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bufPos + length));
+        }
+        System.arraycopy(data, p, buf, bufPos, length);
+        bufPos += length;
+        lastPush = end - 1;
+        return end - 1;
+    }
+
+    /**
+     * Returns the fields parsed so far. The values are copied once more into the returned headers, which don't
+     * refer to the parser or to any buffer passed to {@link #parse(ByteBuffer)}, so they stay valid after either is
+     * reused.
+     */
     public MessageHeaders headers() {
-        return new MessageHeaders(headerMap);
+        return new MessageHeaders(Arrays.copyOf(fieldNames, fieldCount), Arrays.copyOf(buf, bufStart),
+                Arrays.copyOf(valueEnds, fieldCount));
     }
 
     public MessageVersion version() {
@@ -332,10 +388,44 @@ case 5:
         return position;
     }
 
+    /**
+     * Adds a field whose value has been pushed into buf between bufStart and end.
+     */
+    private void addField(String name, int end) {
+        if (fieldCount == fieldNames.length) {
+            fieldNames = Arrays.copyOf(fieldNames, fieldCount * 2);
+            valueEnds = Arrays.copyOf(valueEnds, fieldCount * 2);
+        }
+        fieldNames[fieldCount] = name;
+        valueEnds[fieldCount] = end;
+        fieldCount++;
+        bufStart = end;
+        bufPos = end;
+        endOfText = end;
+    }
+
     private void setHeader(String name, String value) {
-        List<String> list = new ArrayList<>();
-        list.add(value);
-        headerMap.put(name, list);
+        int j = 0;
+        int start = 0;
+        int end = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            int length = valueEnds[i] - start;
+            if (!fieldNames[i].equalsIgnoreCase(name)) {
+                System.arraycopy(buf, start, buf, end, length);
+                end += length;
+                fieldNames[j] = fieldNames[i];
+                valueEnds[j] = end;
+                j++;
+            }
+            start += length;
+        }
+        fieldCount = j;
+        byte[] bytes = value.getBytes(UTF_8);
+        if (end + bytes.length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, end + bytes.length));
+        }
+        System.arraycopy(bytes, 0, buf, end, bytes.length);
+        addField(name, end + bytes.length);
     }
 
     
@@ -539,4 +629,11 @@ static final int warc_en_any_header = 1;
 
 
 // line 259 "WarcParser.rl"
+
+    // bytes on which each state loops back to itself with only the push action, declared after the tables it's
+    // derived from so they're initialised first
+    private static final boolean[][] pushLoops = new ParserTables(_warc_actions, _warc_key_offsets,
+            _warc_trans_keys, _warc_single_lengths, _warc_range_lengths, _warc_index_offsets, _warc_indicies,
+            _warc_trans_targs, _warc_trans_actions).selfLoops(0);
+    private static final boolean[] pushLoopsAscii = ParserTables.coversVisibleAscii(pushLoops);
 }
\ No newline at end of file
@@ -5,6 +5,9 @@
 
 package org.netpreserve.jwarc;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public abstract class WarcPayload {
@@ -18,6 +21,26 @@ public abstract class WarcPayload {
         return body;
     }
 
+    /**
+     * The payload with any HTTP content coding (gzip or deflate) removed. Bytes are decoded as they are read, using
+     * inflaters from the reader's {@link BufferPool}, so the payload is never held in memory in full. Closing the
+     * returned body returns its buffers and inflaters to the pool.
+     *
+     * @throws IOException if the payload uses a content coding that isn't supported, such as br
+     */
+    public MessageBody decodedBody() throws IOException {
+        BufferPool pool = body instanceof LengthedBody ? ((LengthedBody) body).pool
+                : body instanceof ChunkedBody ? ((ChunkedBody) body).pool : BufferPool.UNPOOLED;
+        return DecodedBody.create(body, contentEncodings(), pool);
+    }
+
+    /**
+     * The values of the Content-Encoding header fields that apply to this payload.
+     */
+    List<String> contentEncodings() {
+        return Collections.emptyList();
+    }
+
     abstract MediaType type();
 
     abstract Optional<MediaType> identifiedType();
@@ -11,24 +11,67 @@ import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class WarcReader implements Iterable<WarcRecord>, Closeable {
     private static final int CRLFCRLF = 0x0d0a0d0a;
+    private static final int MAX_SKIP_FAILURES = 3;
     private static final Map<String, WarcRecord.Constructor> defaultTypes = initDefaultTypes();
     private final HashMap<String, WarcRecord.Constructor> types;
     private final WarcParser parser = new WarcParser();
     private final ReadableByteChannel channel;
-    private final ByteBuffer buffer;
+    private ByteBuffer buffer;
+    private final ReadableByteChannel inputChannel;
+    private ByteBuffer inputBuffer;
+    private final int inputBufferOrigin;
+    private final boolean wholeInputInBuffer; // inputBuffer holds the entire WARC and inputChannel is END_OF_INPUT
+    private final BufferPool pool;
+    private boolean ownsInputBuffer;
+    private int maxBufferSize;
+    private Path path;
+    private long limit = Long.MAX_VALUE;
+    private boolean closed;
     private final WarcCompression compression;
     private WarcRecord record;
     private final long startPosition;
     private long position;
     private long headerLength;
+    private boolean memberAligned; // the current record started at the beginning of a gzip member
+    private boolean recordSkipped; // the current record has already been moved past by transferRawRecord()
+    private boolean fastSkip;
+    private int skipFailures; // consecutive records fast skip couldn't find the end of
+    private AtomicLong httpAnomalies;
 
+    /**
+     * @param buffer holds any input already read from the channel, between its position and limit. A read-only buffer
+     *               is copied so that it can be refilled.
+     */
     public WarcReader(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        this(channel, buffer.isReadOnly() ? writableCopy(buffer) : buffer, null, BufferPool.UNPOOLED, false, false);
+    }
+
+    private WarcReader(ReadableByteChannel channel, ByteBuffer buffer, ExecutorService executor, BufferPool pool,
+                       boolean ownsInputBuffer) throws IOException {
+        this(channel, buffer, executor, pool, ownsInputBuffer, false);
+    }
+
+    private WarcReader(ReadableByteChannel channel, ByteBuffer buffer, ExecutorService executor, BufferPool pool,
+                       boolean ownsInputBuffer, boolean wholeInputInBuffer) throws IOException {
         this.types = new HashMap<>(defaultTypes);
+        this.pool = pool;
+        this.ownsInputBuffer = ownsInputBuffer;
+        this.wholeInputInBuffer = wholeInputInBuffer;
+        this.inputChannel = channel;
+        this.inputBuffer = buffer;
+        this.inputBufferOrigin = buffer.position();
 
         if (channel instanceof SeekableByteChannel) {
             startPosition = ((SeekableByteChannel) channel).position();
@@ -39,9 +82,7 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         position = startPosition;
 
         while (buffer.remaining() < 2) {
-            buffer.compact();
-            int n = channel.read(buffer);
-            buffer.flip();
+            int n = IOUtils.refill(channel, buffer);
             if (n < 0) {
                 if (!buffer.hasRemaining()) {
                     this.channel = channel;
@@ -55,8 +96,14 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         }
 
         if (buffer.getShort(buffer.position()) == 0x1f8b) {
-            this.channel = new GunzipChannel(channel, buffer);
-            this.buffer = ByteBuffer.allocate(8192);
+            if (executor != null && channel instanceof FileChannel) {
+                FileChannel fileChannel = (FileChannel) channel;
+                long start = fileChannel.position() - buffer.remaining();
+                this.channel = new ParallelGunzipChannel(fileChannel, executor, start);
+            } else {
+                this.channel = new GunzipChannel(channel, buffer, pool);
+            }
+            this.buffer = pool.acquireBuffer();
             this.buffer.flip();
             compression = WarcCompression.GZIP;
         } else {
@@ -67,7 +114,18 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
     }
 
     public WarcReader(ReadableByteChannel channel) throws IOException {
-        this(channel, (ByteBuffer) ByteBuffer.allocate(8192).flip());
+        this(channel, BufferPool.UNPOOLED);
+    }
+
+    /**
+     * Reads records from a channel using buffers and inflaters recycled through a shared pool.
+     * <p>
+     * They are returned to the pool when the reader is closed so records must not be read after that. The pool's
+     * buffer size also sets the size of the reader's buffers, so <code>new BufferPool(size, 0)</code> can be used to
+     * read with larger buffers without any pooling.
+     */
+    public WarcReader(ReadableByteChannel channel, BufferPool pool) throws IOException {
+        this(channel, (ByteBuffer) pool.acquireBuffer().flip(), null, pool, true);
     }
 
     public WarcReader(InputStream stream) throws IOException {
@@ -76,6 +134,129 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
 
     public WarcReader(Path path) throws IOException {
         this(FileChannel.open(path));
+        this.path = path;
+    }
+
+    /**
+     * Opens a WARC file for reading using buffers and inflaters recycled through a shared pool.
+     *
+     * @see #WarcReader(ReadableByteChannel, BufferPool)
+     */
+    public WarcReader(Path path, BufferPool pool) throws IOException {
+        this(FileChannel.open(path), pool);
+        this.path = path;
+    }
+
+    /**
+     * Reads records from a buffer holding an entire WARC file, such as a {@link java.nio.MappedByteBuffer}.
+     * <p>
+     * Both uncompressed and gzipped WARCs are read in place without copying the input. The buffer's position and
+     * contents are left unchanged.
+     */
+    public WarcReader(ByteBuffer buffer) throws IOException {
+        this(IOUtils.END_OF_INPUT, buffer.asReadOnlyBuffer(), null, BufferPool.UNPOOLED, false, true);
+    }
+
+    private static ByteBuffer writableCopy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(Math.max(buffer.capacity(), 8192));
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Opens a WARC file for reading, decompressing gzip members in parallel.
+     * <p>
+     * When the file is gzipped the reader scans ahead for member boundaries and inflates upcoming members on the
+     * given executor while the current record is being processed. Records are still returned in file order with the
+     * same {@link #position()} values as a sequential reader. Uncompressed files are read normally.
+     * <p>
+     * The executor is not shut down when the reader is closed.
+     */
+    public WarcReader(Path path, ExecutorService executor) throws IOException {
+        this(path, executor, BufferPool.UNPOOLED);
+    }
+
+    /**
+     * Opens a WARC file for reading, decompressing gzip members in parallel and taking the reader's buffers from the
+     * given pool.
+     *
+     * @see #WarcReader(Path, ExecutorService)
+     */
+    public WarcReader(Path path, ExecutorService executor, BufferPool pool) throws IOException {
+        this(FileChannel.open(path), (ByteBuffer) pool.acquireBuffer().flip(), executor, pool, true);
+        this.path = path;
+    }
+
+    /**
+     * Opens a WARC file for reading only the records that start in the byte range [start, end).
+     * <p>
+     * The start must be the beginning of a record, such as one of the boundaries returned by
+     * {@link #shardBoundaries(Path, long)}. A record that starts before the end is read in full even if it extends past
+     * it. Positions returned by {@link #position()} are relative to the start of the file.
+     */
+    public WarcReader(Path path, long start, long end) throws IOException {
+        this(openAt(path, start));
+        this.path = path;
+        this.limit = end;
+    }
+
+    private static FileChannel openAt(Path path, long position) throws IOException {
+        FileChannel channel = FileChannel.open(path);
+        try {
+            channel.position(position);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Divides a WARC file into shards of roughly the given size that each start on a record boundary.
+     * <p>
+     * Returns the boundaries in ascending order starting with 0 and ending with the file size, so shard i is the range
+     * [boundaries[i], boundaries[i + 1]) which can be read with {@link #WarcReader(Path, long, long)}. Boundaries are
+     * found by scanning for a gzip member header or <code>WARC/</code> line and checking a record header parses from
+     * there. Gzipped files need to have one record per member; otherwise a single shard covering the whole file is
+     * returned.
+     */
+    public static long[] shardBoundaries(Path path, long shardSize) throws IOException {
+        if (shardSize <= 0) throw new IllegalArgumentException("shardSize must be positive");
+        WarcCompression compression;
+        try (WarcReader reader = new WarcReader(path)) {
+            compression = reader.compression();
+        }
+        long size = Files.size(path);
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        try (BoundaryFinder finder = new BoundaryFinder(path, compression)) {
+            long boundary = 0;
+            while (boundary + shardSize < size) {
+                boundary = finder.next(boundary + shardSize, size);
+                if (boundary < 0) break;
+                boundaries.add(boundary);
+            }
+        }
+        if (size > 0) boundaries.add(size);
+        long[] array = new long[boundaries.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = boundaries.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Creates a reader for part of the same file with the same types and settings as this one.
+     */
+    WarcReader copy(ReadableByteChannel channel, long limit) throws IOException {
+        WarcReader copy = new WarcReader(channel, pool);
+        copy.types.putAll(types);
+        copy.fastSkip = fastSkip;
+        copy.maxBufferSize = maxBufferSize;
+        copy.httpAnomalies = httpAnomalies;
+        copy.limit = limit;
+        return copy;
     }
 
     private static Map<String, WarcRecord.Constructor> initDefaultTypes() {
@@ -107,17 +288,28 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
      */
     public Optional<WarcRecord> next() throws IOException {
         if (record != null) {
-            record.body().consume();
-            record.body().close();
-            consumeTrailer();
+            if (!recordSkipped && !(fastSkip && skipRecord())) {
+                record.body().consume();
+                record.body().close();
+                consumeTrailer();
+            }
 
             if (channel instanceof GunzipChannel) {
                 position = startPosition + ((GunzipChannel) channel).inputPosition();
+            } else if (channel instanceof ParallelGunzipChannel) {
+                position = startPosition + ((ParallelGunzipChannel) channel).inputPosition();
             } else {
                 position += headerLength + record.body().size() + 4;
             }
         }
 
+        if (position >= limit) {
+            return Optional.empty();
+        }
+
+        recordSkipped = false;
+        memberAligned = channel instanceof GunzipChannel && ((GunzipChannel) channel).atMemberBoundary()
+                && !buffer.hasRemaining();
         parser.reset();
         if (!parser.parse(channel, buffer)) {
             return Optional.empty();
@@ -125,11 +317,40 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         headerLength = parser.position();
         MessageHeaders headers = parser.headers();
         long contentLength = headers.sole("Content-Length").map(Long::parseLong).orElse(0L);
-        MessageBody body = LengthedBody.create(channel, buffer, contentLength);
+        if (contentLength > buffer.capacity() && buffer.capacity() < maxBufferSize &&
+                !(wholeInputInBuffer && buffer == inputBuffer)) {
+            growBuffer(contentLength);
+        }
+        LengthedBody body = LengthedBody.create(channel, buffer, contentLength);
+        body.pool = pool;
+        body.httpAnomalies = httpAnomalies;
         record = construct(parser.version(), headers, body);
         return Optional.of(record);
     }
 
+    /**
+     * Replaces our buffer with a larger one, doubling until it fits the given length or reaches the maximum.
+     */
+    private void growBuffer(long length) {
+        int capacity = buffer.capacity();
+        while (capacity < length && capacity < maxBufferSize) {
+            capacity = (int) Math.min(capacity * 2L, maxBufferSize);
+        }
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        larger.put(buffer);
+        larger.flip();
+        if (buffer == inputBuffer) {
+            if (ownsInputBuffer) {
+                pool.releaseBuffer(inputBuffer);
+                ownsInputBuffer = false;
+            }
+            inputBuffer = larger;
+        } else {
+            pool.releaseBuffer(buffer);
+        }
+        buffer = larger;
+    }
+
     private WarcRecord construct(MessageVersion version, MessageHeaders headers, MessageBody body) {
         String type = headers.sole("WARC-Type").orElse("default");
         WarcRecord.Constructor constructor = types.get(type);
@@ -139,14 +360,96 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         return constructor.construct(version, headers, body);
     }
 
+    /**
+     * Tries to jump over the rest of the current record to the next gzip member without inflating it.
+     */
+    private boolean skipRecord() throws IOException {
+        if (!(channel instanceof GunzipChannel)) return false;
+        GunzipChannel gunzip = (GunzipChannel) channel;
+        if (gunzip.atMemberBoundary()) return false; // the rest of the record is already in our buffer
+        long trailerLength = record.version().getProtocol().equals("ARC") ? 1 : 4;
+        if (!gunzip.skipMember(headerLength + record.body().size() + trailerLength)) {
+            // after a few in a row it's probably not one record per member so don't waste time scanning again
+            if (++skipFailures >= MAX_SKIP_FAILURES) {
+                fastSkip = false;
+            }
+            return false;
+        }
+        skipFailures = 0;
+        record.body().close();
+        buffer.position(buffer.limit());
+        return true;
+    }
+
+    /**
+     * The current record, or null if there isn't one.
+     */
+    WarcRecord current() {
+        return record;
+    }
+
+    /**
+     * Copies the current record to the target exactly as it appears in the input, compressed or not, using
+     * {@link FileChannel#transferTo} when reading from a file. The reader then moves past the record as usual on the
+     * next call to {@link #next()}.
+     * <p>
+     * This requires a file or in-memory input and, for gzipped WARCs, that the record has a gzip member to itself.
+     *
+     * @return the number of bytes copied, or -1 if the record can't be copied this way, in which case nothing has
+     * been changed
+     */
+    long transferRawRecord(WritableByteChannel target) throws IOException {
+        if (record == null || recordSkipped || record.version().getProtocol().equals("ARC")) return -1;
+        if (!(inputChannel instanceof FileChannel || wholeInputInBuffer)) return -1;
+        long start = position;
+        long end;
+        if (channel instanceof GunzipChannel) {
+            GunzipChannel gunzip = (GunzipChannel) channel;
+            if (!memberAligned) return -1;
+            long rest = record.body().size() - record.body().position() + 4;
+            if (gunzip.atMemberBoundary()) {
+                // the whole member has been inflated, check it held nothing past this record
+                if (buffer.remaining() != rest) return -1;
+            } else if (!gunzip.skipMember(headerLength + record.body().size() + 4)) {
+                return -1;
+            }
+            record.body().close();
+            buffer.position(buffer.limit());
+            recordSkipped = true;
+            end = startPosition + gunzip.inputPosition();
+        } else if (channel == inputChannel) {
+            end = position + headerLength + record.body().size() + 4;
+        } else {
+            return -1;
+        }
+
+        long length = end - start;
+        if (wholeInputInBuffer) {
+            ByteBuffer raw = inputBuffer.duplicate();
+            raw.limit(inputBufferOrigin + (int) end);
+            raw.position(inputBufferOrigin + (int) start);
+            while (raw.hasRemaining()) {
+                target.write(raw);
+            }
+        } else {
+            FileChannel file = (FileChannel) inputChannel;
+            for (long copied = 0; copied < length; ) {
+                long n = file.transferTo(start + copied, length - copied, target);
+                if (n == 0 && start + copied >= file.size()) {
+                    throw new EOFException("record extends past end of file");
+                }
+                copied += n;
+            }
+        }
+        return length;
+    }
+
     private void consumeTrailer() throws IOException {
         if (record.version().getProtocol().equals("ARC")) {
             while (buffer.remaining() < 1) {
-                buffer.compact();
-                if (channel.read(buffer) < 0) {
+                if (IOUtils.refill(channel, buffer) < 0) {
                     throw new EOFException("expected trailing LF");
                 }
-                buffer.flip();
             }
             int trailer = buffer.get();
             if (trailer != '\n') {
@@ -154,11 +457,9 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
             }
         } else {
             while (buffer.remaining() < 4) {
-                buffer.compact();
-                if (channel.read(buffer) < 0) {
+                if (IOUtils.refill(channel, buffer) < 0) {
                     throw new EOFException("expected trailing CRLFCRLF");
                 }
-                buffer.flip();
             }
             int trailer = buffer.getInt();
             if (trailer != CRLFCRLF) { // CRLFCRLF
@@ -180,6 +481,56 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         types.put(type, constructor);
     }
 
+    /**
+     * Allows the reader to grow its buffer when it encounters large records.
+     * <p>
+     * The initial buffer size is that of the {@link BufferPool} the reader was created with. When a record's
+     * Content-Length exceeds the current buffer the reader doubles it, up to this limit, before reading the body so
+     * that large sequential reads are done with fewer system calls. Zero (the default) disables growth.
+     */
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Enables skipping unread record bodies in gzipped WARCs without decompressing them.
+     * <p>
+     * When {@link #next()} is called before the current record's body has been fully read the reader seeks straight
+     * to the start of the next gzip member instead of inflating the remaining data. This makes header-only passes such
+     * as indexing much faster. The member boundary is found using the 'sl' gzip extra field when present or by
+     * scanning for the next gzip header and checking the preceding trailer's length.
+     * <p>
+     * Fast skipping requires each record to be compressed as a separate gzip member and a seekable channel (or a
+     * buffer holding the whole file). Otherwise the reader silently falls back to decompressing the body.
+     */
+    public void setFastSkip(boolean fastSkip) {
+        this.fastSkip = fastSkip;
+    }
+
+    /**
+     * Parses the HTTP messages in request and response records leniently.
+     * <p>
+     * Real-world crawl data contains many HTTP messages the strict parser rejects. In lenient mode problems such as
+     * bare LF line endings, junk status lines and malformed header lines are worked around rather than thrown as
+     * exceptions and counted in {@link #httpAnomalies()}. WARC headers are always parsed strictly.
+     *
+     * @see HttpParser#lenient()
+     */
+    public void setLenientHttp(boolean lenient) {
+        if (!lenient) {
+            httpAnomalies = null;
+        } else if (httpAnomalies == null) {
+            httpAnomalies = new AtomicLong();
+        }
+    }
+
+    /**
+     * The number of problems worked around while leniently parsing HTTP messages from this reader.
+     */
+    public long httpAnomalies() {
+        return httpAnomalies == null ? 0 : httpAnomalies.get();
+    }
+
     /**
      * Returns the byte position of the most recently read record.
      * <p>
@@ -190,6 +541,44 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         return position;
     }
 
+    /**
+     * Repositions the reader so the next call to {@link #next()} reads the record starting at the given byte position.
+     * <p>
+     * This allows a single reader and its buffers to be reused for many random-access lookups, such as fetching
+     * records found in a CDX index. For compressed WARCs the position must be the start of a gzip member.
+     *
+     * @throws UnsupportedOperationException if the underlying channel is not seekable
+     */
+    public void position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("negative position");
+        if (record != null) {
+            record.body().close();
+            record = null;
+        }
+
+        if (inputChannel instanceof SeekableByteChannel) {
+            ((SeekableByteChannel) inputChannel).position(newPosition);
+            inputBuffer.position(inputBuffer.limit());
+        } else if (wholeInputInBuffer) {
+            if (newPosition > inputBuffer.limit() - inputBufferOrigin) {
+                throw new IllegalArgumentException("position past end of buffer");
+            }
+            inputBuffer.position(inputBufferOrigin + (int) newPosition);
+        } else {
+            throw new UnsupportedOperationException("channel is not seekable");
+        }
+
+        if (channel instanceof GunzipChannel) {
+            ((GunzipChannel) channel).reset(newPosition - startPosition);
+        } else if (channel instanceof ParallelGunzipChannel) {
+            ((ParallelGunzipChannel) channel).reset(newPosition - startPosition);
+        }
+        if (buffer != inputBuffer) {
+            buffer.position(buffer.limit());
+        }
+        position = newPosition;
+    }
+
     /**
      * The type of WARC compression that was detected.
      */
@@ -197,6 +586,48 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
         return compression;
     }
 
+    /**
+     * Returns a stream of the records in this reader.
+     * <p>
+     * As with {@link #next()} a record's body is only readable until the stream moves on to the next record.
+     * <p>
+     * When the reader was opened from a {@link Path} and no records have been read yet the stream can be split for
+     * parallel processing. Each split reads a different byte range of the file with its own reader, starting at a
+     * record boundary found by scanning for a gzip member header or <code>WARC/</code> line. Gzipped files must have
+     * one record per member to be split. The stream should be closed to close the readers it opened and this one,
+     * which should not otherwise be used once a stream has been created.
+     * <pre>
+     * try (Stream&lt;WarcRecord&gt; records = reader.records()) {
+     *     records.parallel().filter(...).forEach(...);
+     * }
+     * </pre>
+     */
+    public Stream<WarcRecord> records() {
+        if (path == null || record != null || position != startPosition) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+        long end;
+        try {
+            end = Math.min(limit, Files.size(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Queue<WarcReader> openReaders = new ConcurrentLinkedQueue<>();
+        WarcSpliterator spliterator = new WarcSpliterator(this, path, startPosition, end, openReaders,
+                WarcSpliterator.MIN_SPLIT_SIZE);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                for (WarcReader reader : openReaders) {
+                    reader.close();
+                }
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     @Override
     public Iterator<WarcRecord> iterator() {
         return new Iterator<WarcRecord>() {
@@ -227,10 +658,25 @@ public class WarcReader implements Iterable<WarcRecord>, Closeable {
     }
 
     /**
-     * Closes the underlying channel.
+     * Closes the underlying channel and returns any pooled buffers.
      */
     @Override
     public void close() throws IOException {
-        channel.close();
+        try {
+            channel.close();
+        } finally {
+            if (!closed) {
+                closed = true;
+                if (record != null) {
+                    record.body().close();
+                }
+                if (buffer != inputBuffer) {
+                    pool.releaseBuffer(buffer);
+                }
+                if (ownsInputBuffer) {
+                    pool.releaseBuffer(inputBuffer);
+                }
+            }
+        }
     }
 }
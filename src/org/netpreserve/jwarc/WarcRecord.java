@@ -7,9 +7,15 @@ package org.netpreserve.jwarc;
 
 import java.net.URI;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.*;
 
 public class WarcRecord extends Message {
+    // parsed on first use, headers are immutable so a racing thread can only compute the same value
+    private String type;
+    private URI id;
+    private Instant date;
+
     WarcRecord(MessageVersion version, MessageHeaders headers, MessageBody body) {
         super(version, headers, body);
     }
@@ -29,25 +35,73 @@ public class WarcRecord extends Message {
         return "<" + recordId + ">";
     }
 
+    /**
+     * Parses a WARC date. The common yyyy-MM-ddTHH:mm:ssZ form is decoded directly and anything else (such as
+     * fractional seconds) is handed to {@link Instant#parse(CharSequence)}.
+     */
+    static Instant parseDate(String date) {
+        if (date.length() != 20 || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != 'Z') {
+            return Instant.parse(date);
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0
+                || minute > 59 || second < 0 || second > 59) {
+            return Instant.parse(date);
+        }
+        if (day > 28 && day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+            return Instant.parse(date);
+        }
+        long epochDay = LocalDate.of(year, month, day).toEpochDay();
+        return Instant.ofEpochSecond(epochDay * 86400 + hour * 3600 + minute * 60 + second);
+    }
+
+    /**
+     * Returns the decimal value of the given run of digits or -1 if any aren't digits.
+     */
+    private static int digits(String s, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
     /**
      * The type of record.
      */
     public String type() {
-        return headers().sole("WARC-Type").get();
+        if (type == null) {
+            type = headers().sole("WARC-Type").get();
+        }
+        return type;
     }
 
     /**
      * The globally unique identifier for this record.
      */
     public URI id() {
-        return parseRecordID(headers().sole("WARC-Record-ID").get());
+        if (id == null) {
+            id = parseRecordID(headers().sole("WARC-Record-ID").get());
+        }
+        return id;
     }
 
     /**
      * The instant that data capture for this record began.
      */
     public Instant date() {
-        return Instant.parse(headers().sole("WARC-Date").get());
+        if (date == null) {
+            date = parseDate(headers().sole("WARC-Date").get());
+        }
+        return date;
     }
 
     /**
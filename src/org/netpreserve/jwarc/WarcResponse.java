@@ -7,6 +7,7 @@ package org.netpreserve.jwarc;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 import java.util.Optional;
 
 public class WarcResponse extends WarcCaptureRecord {
@@ -52,6 +53,11 @@ public class WarcResponse extends WarcCaptureRecord {
                 Optional<WarcDigest> digest() {
                     return payloadDigest();
                 }
+
+                @Override
+                List<String> contentEncodings() {
+                    return http.headers().all("Content-Encoding");
+                }
             });
         }
         return Optional.empty();
@@ -49,7 +49,7 @@ public class WarcRevisit extends WarcCaptureRecord {
      * The date of the record this record is a revisit of.
      */
     public Optional<Instant> refersToDate() {
-        return headers().sole("WARC-Refers-To-Date").map(Instant::parse);
+        return headers().sole("WARC-Refers-To-Date").map(WarcRecord::parseDate);
     }
 
     /**
@@ -0,0 +1,378 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+
+/**
+ * Processes many WARC files in parallel.
+ * <p>
+ * Files are opened on a work-stealing pool with a bounded number of threads, largest first so a big file doesn't
+ * start last and hold up the whole job. The records of each file are always processed in order by a single thread and
+ * per-file results are delivered to the caller in the order the files were given.
+ * <pre>
+ * WarcScanner scanner = new WarcScanner(paths);
+ * long count = scanner.collect(Collectors.counting());
+ * </pre>
+ * The progress counters may be read from another thread while a scan is running.
+ */
+public class WarcScanner {
+    private final List<Path> files;
+    private final Map<String, WarcRecord.Constructor<WarcRecord>> types = new HashMap<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean fastSkip;
+    private final AtomicLong filesScanned = new AtomicLong();
+    private final AtomicLong recordsScanned = new AtomicLong();
+    private final AtomicLong bytesScanned = new AtomicLong();
+    private volatile long startTime;
+
+    public WarcScanner(List<Path> files) {
+        this.files = new ArrayList<>(files);
+    }
+
+    /**
+     * Processes a whole file given a reader positioned at its start.
+     */
+    public interface FileTask<R> {
+        R apply(Path file, WarcReader reader) throws IOException;
+    }
+
+    /**
+     * Processes a whole file, passing any number of outputs to a consumer as it goes.
+     */
+    public interface StreamingFileTask<T> {
+        void apply(Path file, WarcReader reader, Consumer<T> output) throws IOException;
+    }
+
+    /**
+     * Processes a single record. The record's body is only readable until the handler returns.
+     */
+    public interface RecordHandler {
+        void handle(Path file, long position, WarcRecord record) throws IOException;
+    }
+
+    /**
+     * Sets the maximum number of files processed at once. Defaults to the number of processors.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1");
+        this.threads = threads;
+    }
+
+    /**
+     * Registers an extension record type with every reader.
+     *
+     * @see WarcReader#registerType(String, WarcRecord.Constructor)
+     */
+    public void registerType(String type, WarcRecord.Constructor<WarcRecord> constructor) {
+        types.put(type, constructor);
+    }
+
+    /**
+     * Enables fast skipping of unread record bodies on every reader.
+     *
+     * @see WarcReader#setFastSkip(boolean)
+     */
+    public void setFastSkip(boolean fastSkip) {
+        this.fastSkip = fastSkip;
+    }
+
+    /**
+     * Runs a task on each file. The results are passed to the consumer on the calling thread in file order as soon
+     * as they and the results of all earlier files are available.
+     */
+    public <R> void forEachFile(FileTask<R> task, Consumer<? super R> results) throws IOException {
+        run((index, file, reader) -> task.apply(file, reader), results, false, indexesBySizeDescending());
+    }
+
+    /**
+     * Runs a task on each file, passing the outputs of all files to the consumer in file order. Outputs of the
+     * earliest unfinished file go straight to the consumer as they are produced while those of later files are held
+     * until every file before them has finished. The consumer is called from the worker threads, one at a time.
+     * <p>
+     * To bound how much output is held, files are started in the order given rather than largest first, and a task
+     * producing output for a file more than the number of threads ahead of the earliest unfinished one waits for it to
+     * catch up.
+     */
+    public <T> void forEachFileStreamed(StreamingFileTask<T> task, Consumer<? super T> output) throws IOException {
+        OrderedOutput<T> ordered = new OrderedOutput<>(files.size(), threads, output);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            order.add(i);
+        }
+        run((index, file, reader) -> {
+            ordered.start(index);
+            task.apply(file, reader, item -> ordered.emit(index, item));
+            ordered.finish(index);
+            return null;
+        }, result -> {
+        }, false, order);
+    }
+
+    /**
+     * Calls the handler for every record of every file. Different files are handled concurrently so the handler must
+     * be thread-safe.
+     */
+    public void forEachRecord(RecordHandler handler) throws IOException {
+        run((index, file, reader) -> {
+            scanRecords(file, reader, handler);
+            return null;
+        }, result -> {
+        }, true, indexesBySizeDescending());
+    }
+
+    /**
+     * Performs a mutable reduction over all records. Each file is accumulated into its own container and the
+     * containers are combined in file order.
+     */
+    public <A, R> R collect(Collector<? super WarcRecord, A, R> collector) throws IOException {
+        BiConsumer<A, ? super WarcRecord> accumulator = collector.accumulator();
+        BinaryOperator<A> combiner = collector.combiner();
+        List<A> combined = new ArrayList<>();
+        combined.add(collector.supplier().get());
+        run((index, file, reader) -> {
+            A container = collector.supplier().get();
+            scanRecords(file, reader, (f, position, record) -> accumulator.accept(container, record));
+            return container;
+        }, container -> combined.set(0, combiner.apply(combined.get(0), container)), true,
+                indexesBySizeDescending());
+        return collector.finisher().apply(combined.get(0));
+    }
+
+    private void scanRecords(Path file, WarcReader reader, RecordHandler handler) throws IOException {
+        long lastPosition = 0;
+        for (WarcRecord record : reader) {
+            handler.handle(file, reader.position(), record);
+            recordsScanned.incrementAndGet();
+            bytesScanned.addAndGet(reader.position() - lastPosition);
+            lastPosition = reader.position();
+        }
+        bytesScanned.addAndGet(Files.size(file) - lastPosition);
+    }
+
+    private interface IndexedTask<R> {
+        R apply(int index, Path file, WarcReader reader) throws IOException;
+    }
+
+    /**
+     * Submits the files to the pool in the given order of indexes and passes their results to the consumer in file
+     * order.
+     */
+    private <R> void run(IndexedTask<R> task, Consumer<? super R> results, boolean countsBytes, List<Integer> order)
+            throws IOException {
+        filesScanned.set(0);
+        recordsScanned.set(0);
+        bytesScanned.set(0);
+        startTime = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<R>> tasks = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                tasks.add(null);
+            }
+            for (int i : order) {
+                Path file = files.get(i);
+                int index = i;
+                tasks.set(i, pool.submit(() -> {
+                    try (WarcReader reader = open(file)) {
+                        R result = task.apply(index, file, reader);
+                        if (!countsBytes) {
+                            bytesScanned.addAndGet(Files.size(file));
+                        }
+                        filesScanned.incrementAndGet();
+                        return result;
+                    }
+                }));
+            }
+            for (ForkJoinTask<R> future : tasks) {
+                results.accept(future.get());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<Integer> indexesBySizeDescending() {
+        List<Integer> indexes = new ArrayList<>();
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            indexes.add(i);
+            try {
+                sizes[i] = Files.size(files.get(i));
+            } catch (IOException e) {
+                sizes[i] = 0; // let the task report it
+            }
+        }
+        indexes.sort((a, b) -> Long.compare(sizes[b], sizes[a]));
+        return indexes;
+    }
+
+    private WarcReader open(Path file) throws IOException {
+        WarcReader reader = new WarcReader(file);
+        for (Map.Entry<String, WarcRecord.Constructor<WarcRecord>> entry : types.entrySet()) {
+            reader.registerType(entry.getKey(), entry.getValue());
+        }
+        reader.setFastSkip(fastSkip);
+        return reader;
+    }
+
+    /**
+     * The number of files completely processed by the current or most recent scan.
+     */
+    public long filesScanned() {
+        return filesScanned.get();
+    }
+
+    /**
+     * The number of records processed by the current or most recent {@link #forEachRecord(RecordHandler)} or
+     * {@link #collect(Collector)}.
+     */
+    public long recordsScanned() {
+        return recordsScanned.get();
+    }
+
+    /**
+     * The number of bytes of input processed by the current or most recent scan. Record-level scans update this as each record is read, file tasks only
+     * when a file is finished.
+     */
+    public long bytesScanned() {
+        return bytesScanned.get();
+    }
+
+    /**
+     * The average input throughput since the most recent scan started.
+     */
+    public double bytesPerSecond() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0 : bytesScanned.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * Passes through the outputs of the file at the head of the order and buffers those of later files.
+     * <p>
+     * Whichever thread holds the delivering flag calls the consumer, outside the lock, and before giving the flag up
+     * passes on anything buffered for the head in the meantime, moving the head past files that have finished.
+     */
+    private static class OrderedOutput<T> {
+        private final Consumer<? super T> output;
+        private final int window;
+        private final List<List<T>> buffered = new ArrayList<>();
+        private final boolean[] started;
+        private final boolean[] finished;
+        private int head;
+        private boolean delivering;
+
+        /**
+         * @param window how many files past the head may produce output before their tasks wait
+         */
+        OrderedOutput(int files, int window, Consumer<? super T> output) {
+            this.output = output;
+            this.window = window;
+            this.started = new boolean[files];
+            this.finished = new boolean[files];
+            for (int i = 0; i < files; i++) {
+                buffered.add(new ArrayList<>());
+            }
+        }
+
+        synchronized void start(int index) {
+            started[index] = true;
+        }
+
+        void emit(int index, T item) {
+            synchronized (this) {
+                // only wait on a head that's running, one still queued behind us would never free us
+                while (index - head > window && started[head]) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedIOException(new InterruptedIOException());
+                    }
+                }
+                if (index != head || delivering || !buffered.get(index).isEmpty()) {
+                    buffered.get(index).add(item);
+                    return;
+                }
+                delivering = true;
+            }
+            deliver(Collections.singletonList(item));
+        }
+
+        void finish(int index) {
+            synchronized (this) {
+                finished[index] = true;
+                if (delivering) return; // the delivering thread will move the head on
+                delivering = true;
+            }
+            deliver(Collections.emptyList());
+        }
+
+        private void deliver(List<T> items) {
+            try {
+                while (true) {
+                    items.forEach(output);
+                    synchronized (this) {
+                        items = takeHead();
+                        if (items == null) {
+                            delivering = false;
+                            return;
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    delivering = false;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Removes and returns the outputs buffered for the head, first moving the head past finished files, or returns
+         * null if there are none.
+         */
+        private List<T> takeHead() {
+            while (head < finished.length) {
+                List<T> items = buffered.get(head);
+                if (!items.isEmpty()) {
+                    buffered.set(head, new ArrayList<>());
+                    return items;
+                }
+                if (!finished[head]) break;
+                buffered.set(head, null);
+                head++;
+                notifyAll();
+            }
+            return null;
+        }
+    }
+}
@@ -1,18 +1,22 @@
 package org.netpreserve.jwarc;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -21,10 +25,10 @@ import java.util.regex.Pattern;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.StandardOpenOption.READ;
 import static java.time.ZoneOffset.UTC;
 import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 import static org.netpreserve.jwarc.HttpServer.send;
+import static org.netpreserve.jwarc.HttpServer.sendChunked;
 import static org.netpreserve.jwarc.MediaType.HTML;
 
 /**
@@ -38,9 +42,12 @@ class WarcServer {
     private static final DateTimeFormatter RFC_1123_UTC = RFC_1123_DATE_TIME.withZone(UTC);
     private static final MediaType LINK_FORMAT = MediaType.parse("application/link-format");
     private static final Pattern REPLAY_RE = Pattern.compile("/replay/([0-9]{14})/(.*)");
+    private static final int MAX_IDLE_READERS = 16;
 
     private final HttpServer httpServer;
     private final CaptureIndex index;
+    private final Map<Path, Deque<WarcReader>> idleReaders = new HashMap<>(); // guarded by itself
+    private int idleReaderCount; // guarded by idleReaders
     private byte[] script = "<!doctype html><script src='/__jwarc__/inject.js'></script>\n".getBytes(US_ASCII);
 
     WarcServer(ServerSocket serverSocket, List<Path> warcs) throws IOException {
@@ -117,15 +124,17 @@ class WarcServer {
             return;
         }
         Capture capture = closest(versions, uri, date);
-        try (FileChannel channel = FileChannel.open(capture.file(), READ)) {
-            channel.position(capture.position());
-            WarcReader reader = new WarcReader(channel);
+        WarcReader reader = acquireReader(capture.file());
+        boolean succeeded = false;
+        try {
+            reader.position(capture.position());
             WarcResponse record = (WarcResponse) reader.next().get();
             HttpResponse http = record.http();
             HttpResponse.Builder b = new HttpResponse.Builder(http.status(), http.reason());
             for (Map.Entry<String, List<String>> e : http.headers().map().entrySet()) {
                 if (e.getKey().equalsIgnoreCase("Strict-Transport-Security")) continue;
                 if (e.getKey().equalsIgnoreCase("Transfer-Encoding")) continue;
+                if (e.getKey().equalsIgnoreCase("Content-Length")) continue; // replaced below
                 if (e.getKey().equalsIgnoreCase("Public-Key-Pins")) continue;
                 for (String value : e.getValue()) {
                     b.addHeader(e.getKey(), value);
@@ -136,12 +145,60 @@ class WarcServer {
             if (!proxy) b.setHeader("Link", mementoLinks(versions, capture));
             if (proxy) b.setHeader("Vary", "Accept-Datetime");
             MessageBody body = http.body();
-            if (!proxy && HTML.equals(http.contentType().base())) {
-                body = LengthedBody.create(body, ByteBuffer.wrap(script), script.length + body.size());
+            boolean injectScript = !proxy && HTML.equals(http.contentType().base());
+            if (body.size() < 0) {
+                // a chunked body has no known length so pass it on chunked rather than buffering it
+                b.setHeader("Content-Type", http.contentType().toString());
+                b.setHeader("Transfer-Encoding", "chunked");
+                InputStream stream = body.stream();
+                if (injectScript) {
+                    stream = new SequenceInputStream(new ByteArrayInputStream(script), stream);
+                }
+                sendChunked(socket, b.build(), stream);
+            } else {
+                if (injectScript) {
+                    body = LengthedBody.create(body, ByteBuffer.wrap(script), script.length + body.size());
+                }
+                b.body(http.contentType(), body, body.size());
+                send(socket, b.build());
+            }
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                releaseReader(capture.file(), reader);
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+    private WarcReader acquireReader(Path file) throws IOException {
+        synchronized (idleReaders) {
+            Deque<WarcReader> readers = idleReaders.get(file);
+            if (readers != null) {
+                WarcReader reader = readers.poll();
+                if (readers.isEmpty()) {
+                    idleReaders.remove(file);
+                }
+                idleReaderCount--;
+                return reader;
+            }
+        }
+        return new WarcReader(file);
+    }
+
+    /**
+     * Keeps a reader open for reuse by a later request for the same file, or closes it if enough are already idle.
+     */
+    private void releaseReader(Path file, WarcReader reader) throws IOException {
+        synchronized (idleReaders) {
+            if (idleReaderCount < MAX_IDLE_READERS) {
+                idleReaders.computeIfAbsent(file, f -> new ArrayDeque<>()).push(reader);
+                idleReaderCount++;
+                return;
             }
-            b.body(http.contentType(), body, body.size());
-            send(socket, b.build());
         }
+        reader.close();
     }
 
     private String mementoLinks(NavigableSet<Capture> versions, Capture current) {
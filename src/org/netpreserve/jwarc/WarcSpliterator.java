@@ -0,0 +1,103 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits a WARC file into byte ranges at record boundaries, reading each range with its own {@link WarcReader}.
+ * <p>
+ * Splitting is done lazily by {@link #trySplit()} which finds the first record boundary after the middle of the
+ * range. The estimated size is in bytes rather than records as counting records would mean reading the file.
+ */
+class WarcSpliterator implements Spliterator<WarcRecord> {
+    static final long MIN_SPLIT_SIZE = 4 * 1024 * 1024;
+
+    private final WarcReader template;
+    private final Path path;
+    private final Queue<WarcReader> openReaders;
+    private final long minSplitSize;
+    private long start;
+    private final long end;
+    private WarcReader reader;
+
+    /**
+     * @param template    reader whose compression, registered types and settings are copied to each range's reader
+     * @param openReaders collects every reader opened so they can all be closed with the stream
+     */
+    WarcSpliterator(WarcReader template, Path path, long start, long end, Queue<WarcReader> openReaders,
+                    long minSplitSize) {
+        this.template = template;
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.openReaders = openReaders;
+        this.minSplitSize = minSplitSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super WarcRecord> action) {
+        try {
+            if (reader == null) {
+                FileChannel channel = FileChannel.open(path);
+                try {
+                    channel.position(start);
+                    reader = template.copy(channel, end);
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+                openReaders.add(reader);
+            }
+            Optional<WarcRecord> record = reader.next();
+            if (!record.isPresent()) {
+                reader.close();
+                openReaders.remove(reader);
+                return false;
+            }
+            action.accept(record.get());
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<WarcRecord> trySplit() {
+        if (reader != null || end - start < minSplitSize * 2) {
+            return null;
+        }
+        long boundary;
+        try (BoundaryFinder finder = new BoundaryFinder(path, template.compression())) {
+            boundary = finder.next(start + (end - start) / 2, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (boundary <= start) {
+            return null;
+        }
+        WarcSpliterator prefix = new WarcSpliterator(template, path, start, boundary, openReaders, minSplitSize);
+        start = boundary;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -16,6 +16,8 @@ import java.util.Optional;
  * record types.
  */
 public abstract class WarcTargetRecord extends WarcRecord {
+    private URI targetURI;
+
     WarcTargetRecord(MessageVersion version, MessageHeaders headers, MessageBody body) {
         super(version, headers, body);
     }
@@ -31,7 +33,10 @@ public abstract class WarcTargetRecord extends WarcRecord {
      * The URI of the original target resource this record holds information about.
      */
     public URI targetURI() {
-        return headers().sole("WARC-Target-URI").map(URIs::parseLeniently).get();
+        if (targetURI == null) {
+            targetURI = headers().sole("WARC-Target-URI").map(URIs::parseLeniently).get();
+        }
+        return targetURI;
     }
 
     /**
@@ -40,36 +40,35 @@ public class WarcTool {
         cdx("List records in CDX format") {
             void exec(String[] args) throws Exception {
                 DateTimeFormatter arcDate = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(UTC);
-                for (String arg : args) {
-                    try (WarcReader reader = new WarcReader(Paths.get(arg))) {
-                        WarcRecord record = reader.next().orElse(null);
-                        while (record != null) {
-                            if ((record instanceof WarcResponse || record instanceof WarcResource) &&
-                                    ((WarcCaptureRecord) record).payload().isPresent()) {
-                                WarcPayload payload = ((WarcCaptureRecord) record).payload().get();
-                                MediaType type;
-                                try {
-                                    type = payload.type().base();
-                                } catch (IllegalArgumentException e) {
-                                    type = MediaType.OCTET_STREAM;
-                                }
-                                URI uri = ((WarcCaptureRecord) record).targetURI();
-                                String date = arcDate.format(record.date());
-                                int status = record instanceof WarcResponse ? ((WarcResponse) record).http().status() : 200;
-                                String digest = payload.digest().map(WarcDigest::toBase32).orElse("-");
-                                long position = reader.position();
+                List<Path> warcs = Stream.of(args).map(Paths::get).collect(Collectors.toList());
+                new WarcScanner(warcs).forEachFileStreamed((file, reader, lines) -> {
+                    WarcRecord record = reader.next().orElse(null);
+                    while (record != null) {
+                        if ((record instanceof WarcResponse || record instanceof WarcResource) &&
+                                ((WarcCaptureRecord) record).payload().isPresent()) {
+                            WarcPayload payload = ((WarcCaptureRecord) record).payload().get();
+                            MediaType type;
+                            try {
+                                type = payload.type().base();
+                            } catch (IllegalArgumentException e) {
+                                type = MediaType.OCTET_STREAM;
+                            }
+                            URI uri = ((WarcCaptureRecord) record).targetURI();
+                            String date = arcDate.format(record.date());
+                            int status = record instanceof WarcResponse ? ((WarcResponse) record).http().status() : 200;
+                            String digest = payload.digest().map(WarcDigest::toBase32).orElse("-");
+                            long position = reader.position();
 
-                                // advance to the next record so we can calculate the length
-                                record = reader.next().orElse(null);
-                                long length = reader.position() - position;
+                            // advance to the next record so we can calculate the length
+                            record = reader.next().orElse(null);
+                            long length = reader.position() - position;
 
-                                System.out.printf("%s %s %s %s %d %s - - %d %d %s%n", uri, date, uri, type, status, digest, length, position, arg);
-                            } else {
-                                record = reader.next().orElse(null);
-                            }
+                            lines.accept(String.format("%s %s %s %s %d %s - - %d %d %s%n", uri, date, uri, type, status, digest, length, position, file));
+                        } else {
+                            record = reader.next().orElse(null);
                         }
                     }
-                }
+                }, System.out::print);
             }
         },
         fetch("Download a URL recording the request and response") {
@@ -16,34 +16,45 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import static java.nio.file.StandardOpenOption.*;
 
 /**
  * Writes records to a WARC file.
  * <p>
- * Compression is not yet implemented.
+ * With {@link WarcCompression#GZIP} each record is written as a separate gzip member so it can be read
+ * independently given its offset.
  */
 public class WarcWriter implements Closeable {
     private static final byte[] TRAILER = new byte[]{'\r', '\n', '\r', '\n'};
     private final WritableByteChannel channel;
     private final WarcCompression compression;
-    private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private final ByteBuffer buffer;
+    private final GzipChannel gzip;
+    private Throwable failure; // a record that failed partway through a gzip member
 
     private AtomicLong position = new AtomicLong(0);
 
     public WarcWriter(WritableByteChannel channel, WarcCompression compression) throws IOException {
-        if (compression == WarcCompression.GZIP) {
-            throw new UnsupportedOperationException("Writing of GZIP WARC files is not currently supported");
-        }
+        this(channel, compression, 8192);
+    }
+
+    /**
+     * @param bufferSize size of the buffer record bodies are copied through, larger values mean fewer write calls
+     */
+    public WarcWriter(WritableByteChannel channel, WarcCompression compression, int bufferSize) throws IOException {
         this.channel = channel;
         this.compression = compression;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.gzip = compression == WarcCompression.GZIP ? new GzipChannel(channel, bufferSize) : null;
 
         if (channel instanceof SeekableByteChannel) {
             position.set(((SeekableByteChannel) channel).position());
@@ -58,16 +69,142 @@ public class WarcWriter implements Closeable {
         this(Channels.newChannel(stream));
     }
 
+    /**
+     * Adds a record to the WARC file.
+     * <p>
+     * If writing a gzipped record fails partway through, the partial member is abandoned and the writer refuses any
+     * further records, as they'd otherwise be appended to a corrupt member.
+     */
     public synchronized void write(WarcRecord record) throws IOException {
-        // TODO: buffer headers, compression
-        position.addAndGet(channel.write(ByteBuffer.wrap(record.serializeHeader())));
+        checkFailure();
+        if (gzip == null) {
+            position.addAndGet(write(channel, record));
+        } else {
+            try {
+                write(gzip, record);
+                position.addAndGet(gzip.finish());
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                gzip.discardMember();
+                throw e;
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("an earlier record failed to write", failure);
+        }
+    }
+
+    private long write(WritableByteChannel out, WarcRecord record) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(record.serializeHeader());
+        ByteBuffer trailer = ByteBuffer.wrap(TRAILER);
         MessageBody body = record.body();
+        if (out == channel && body instanceof LengthedBody && ((LengthedBody) body).isFileBacked()) {
+            long written = writeFully(out, header);
+            written += ((LengthedBody) body).transferTo(out);
+            written += writeFully(out, trailer);
+            return written;
+        }
+        if (out instanceof GatheringByteChannel) {
+            return gatherWrite((GatheringByteChannel) out, header, body, trailer);
+        }
+        long written = out.write(header);
         while (body.read(buffer) >= 0) {
             buffer.flip();
-            position.addAndGet(channel.write(buffer));
+            written += out.write(buffer);
+            buffer.compact();
+        }
+        written += out.write(trailer);
+        return written;
+    }
+
+    /**
+     * Writes the header together with the first buffer full of the body, and the trailer with the last, so a record
+     * that fits in the buffer takes a single write call.
+     */
+    private long gatherWrite(GatheringByteChannel out, ByteBuffer header, MessageBody body, ByteBuffer trailer)
+            throws IOException {
+        ByteBuffer[] buffers = {header, buffer, trailer};
+        long written = 0;
+        boolean end = false;
+        while (true) {
+            while (!end && buffer.hasRemaining()) {
+                end = body.read(buffer) < 0;
+            }
+            buffer.flip();
+            if (end) {
+                while (header.hasRemaining() || buffer.hasRemaining() || trailer.hasRemaining()) {
+                    written += out.write(buffers);
+                }
+                buffer.clear();
+                return written;
+            }
+            written += out.write(buffers, 0, 2);
             buffer.compact();
         }
-        position.addAndGet(channel.write(ByteBuffer.wrap(TRAILER)));
+    }
+
+    private static long writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Appends the reader's current record exactly as it was read, without reserializing its headers or decompressing
+     * and recompressing it. When both files are on disk the kernel does the copy with
+     * {@link FileChannel#transferTo}.
+     * <p>
+     * A raw copy needs the reader to use the same compression as this writer, to be reading from a file or buffer
+     * and, for gzip, the record to have been compressed as a member of its own. Otherwise the record is written as if
+     * by {@link #write(WarcRecord)}, which requires its body not to have been read yet.
+     *
+     * @throws IllegalStateException if the reader has no current record
+     */
+    public synchronized void writeRaw(WarcReader reader) throws IOException {
+        WarcRecord record = reader.current();
+        if (record == null) {
+            throw new IllegalStateException("reader has no current record");
+        }
+        checkFailure();
+        if (reader.compression() == compression) {
+            long n = reader.transferRawRecord(channel);
+            if (n >= 0) {
+                position.addAndGet(n);
+                return;
+            }
+        }
+        write(record);
+    }
+
+    /**
+     * Sets the gzip compression level (0-9, or {@link Deflater#DEFAULT_COMPRESSION}) for subsequent records.
+     *
+     * @throws IllegalStateException if this writer doesn't use gzip compression
+     */
+    public synchronized void setCompressionLevel(int level) {
+        gzip().setLevel(level);
+    }
+
+    /**
+     * Sets the gzip compression strategy ({@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or
+     * {@link Deflater#HUFFMAN_ONLY}) for subsequent records.
+     *
+     * @throws IllegalStateException if this writer doesn't use gzip compression
+     */
+    public synchronized void setCompressionStrategy(int strategy) {
+        gzip().setStrategy(strategy);
+    }
+
+    private GzipChannel gzip() {
+        if (gzip == null) {
+            throw new IllegalStateException("compression is " + compression);
+        }
+        return gzip;
     }
 
     /**
@@ -118,7 +255,8 @@ public class WarcWriter implements Closeable {
     }
 
     /**
-     * Returns the byte position the next record will be written to.
+     * Returns the byte position the next record will be written to. With gzip compression this is the offset in the
+     * compressed file.
      * <p>
      * If the underlying channel is not seekable the returned value will be relative to the position the channel
      * was in when the WarcWriter was created.
@@ -129,6 +267,10 @@ public class WarcWriter implements Closeable {
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        if (gzip != null) {
+            gzip.close();
+        } else {
+            channel.close();
+        }
     }
 }
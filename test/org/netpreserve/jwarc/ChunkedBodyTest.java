@@ -3,12 +3,21 @@ package org.netpreserve.jwarc;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.*;
@@ -33,6 +42,208 @@ public class ChunkedBodyTest {
         assertEquals("hello world", new String(Arrays.copyOf(buf.array(), buf.position()), US_ASCII));
     }
 
+    @Test
+    public void randomSplits() throws IOException {
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            byte[] encoded = encode(random, expected);
+            ByteBuffer buffer = ByteBuffer.allocate(1 + random.nextInt(64));
+            buffer.flip();
+            ChunkedBody body = new ChunkedBody(new TrickleChannel(encoded, random), buffer);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            ByteBuffer dst = ByteBuffer.allocate(1 + random.nextInt(100));
+            while (body.read(dst) >= 0) {
+                dst.flip();
+                actual.write(dst.array(), 0, dst.limit());
+                dst.clear();
+            }
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            assertEquals(expected.size(), body.position());
+        }
+    }
+
+    @Test
+    public void consumeUsesPoolBuffers() throws IOException {
+        int[] acquired = {0};
+        BufferPool pool = new BufferPool(1024, 1) {
+            @Override
+            public ByteBuffer acquireBuffer() {
+                acquired[0]++;
+                return super.acquireBuffer();
+            }
+        };
+        ByteBuffer buffer = pool.acquireBuffer();
+        buffer.flip();
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(
+                "5\r\nhello\r\n0\r\n\r\n".getBytes(US_ASCII)));
+        ChunkedBody body = ChunkedBody.createPooled(channel, buffer, pool);
+        body.consume();
+        assertEquals(5, body.position());
+        assertEquals(2, acquired[0]);
+        // the consume buffer went back to the pool and comes out again
+        ByteBuffer released = pool.acquireBuffer();
+        assertEquals(1024, released.capacity());
+        body.close();
+    }
+
+    @Test
+    public void scatteringReadsOnlyForLargeDestinations() throws IOException {
+        Random random = new Random(0);
+        byte[] data = new byte[10000];
+        random.nextBytes(data);
+        byte[] encoded = ("2710\r\n" + new String(data, US_ASCII) + "\r\n0\r\n\r\n").getBytes(US_ASCII);
+        System.arraycopy(data, 0, encoded, 6, data.length);
+        Path file = Files.createTempFile("jwarc", ".tmp");
+        try {
+            Files.write(file, encoded);
+            for (int dstSize : new int[]{10, 4096}) {
+                int[] scatteringReads = {0};
+                try (FileChannel channel = FileChannel.open(file)) {
+                    ReadableByteChannel counting = new ScatteringByteChannel() {
+                        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+                            scatteringReads[0]++;
+                            return channel.read(dsts, offset, length);
+                        }
+
+                        public long read(ByteBuffer[] dsts) throws IOException {
+                            return read(dsts, 0, dsts.length);
+                        }
+
+                        public int read(ByteBuffer dst) throws IOException {
+                            return channel.read(dst);
+                        }
+
+                        public boolean isOpen() {
+                            return channel.isOpen();
+                        }
+
+                        public void close() throws IOException {
+                            channel.close();
+                        }
+                    };
+                    ByteBuffer buffer = ByteBuffer.allocate(1024);
+                    buffer.flip();
+                    ChunkedBody body = new ChunkedBody(counting, buffer);
+                    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                    ByteBuffer dst = ByteBuffer.allocate(dstSize);
+                    while (body.read(dst) >= 0) {
+                        actual.write(dst.array(), 0, dst.position());
+                        dst.clear();
+                    }
+                    assertArrayEquals(data, actual.toByteArray());
+                }
+                // small reads are served from a buffer filled by plain reads, large ones read straight into dst
+                if (dstSize < 1024) {
+                    assertEquals(0, scatteringReads[0]);
+                } else {
+                    assertTrue(scatteringReads[0] > 0);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void seekable() throws IOException {
+        Random random = new Random(0);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] encoded = encode(random, expected);
+        byte[] decoded = expected.toByteArray();
+        byte[] prefix = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(US_ASCII);
+        byte[] suffix = "\r\n\r\nWARC/1.1\r\n".getBytes(US_ASCII);
+        Path file = Files.createTempFile("jwarc", ".tmp");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(new ByteBuffer[]{ByteBuffer.wrap(prefix), ByteBuffer.wrap(encoded), ByteBuffer.wrap(suffix)});
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer recordBuffer = ByteBuffer.allocate(16);
+            recordBuffer.flip();
+            LengthedBody record = LengthedBody.create(channel, recordBuffer, prefix.length + encoded.length);
+            HttpResponse response = HttpResponse.parse(record);
+            SeekableByteChannel body = (SeekableByteChannel) response.body();
+            assertEquals(decoded.length, body.size());
+            assertEquals(0, body.position());
+            for (int i = 0; i < 100; i++) {
+                int start = random.nextInt(decoded.length + 1);
+                int length = random.nextInt(200);
+                body.position(start);
+                ByteBuffer dst = ByteBuffer.allocate(length);
+                while (dst.hasRemaining() && body.read(dst) >= 0) {
+                    // keep reading
+                }
+                int expectedLength = Math.min(length, decoded.length - start);
+                assertEquals(expectedLength, dst.position());
+                assertArrayEquals(Arrays.copyOfRange(decoded, start, start + expectedLength),
+                        Arrays.copyOf(dst.array(), dst.position()));
+                assertEquals(start + expectedLength, body.position());
+            }
+            body.position(decoded.length + 10);
+            assertEquals(-1, body.read(ByteBuffer.allocate(1)));
+            assertEquals(decoded.length + 10, body.position());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Generates a chunked encoding of random content, mixing plain headers with ones the fast path won't take.
+     */
+    private static byte[] encode(Random random, ByteArrayOutputStream content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int chunks = random.nextInt(20);
+        for (int i = 0; i < chunks; i++) {
+            byte[] data = new byte[1 + random.nextInt(300)];
+            random.nextBytes(data);
+            content.write(data);
+            String size = Integer.toHexString(data.length);
+            if (random.nextBoolean()) size = size.toUpperCase(Locale.ROOT);
+            if (random.nextInt(5) == 0) size = "00" + size;
+            if (random.nextInt(5) == 0) size += ";name=\"value\"";
+            out.write((size + "\r\n").getBytes(US_ASCII));
+            out.write(data);
+            out.write("\r\n".getBytes(US_ASCII));
+        }
+        out.write("0\r\n".getBytes(US_ASCII));
+        if (random.nextBoolean()) out.write("Trailer: x\r\n".getBytes(US_ASCII));
+        out.write("\r\n".getBytes(US_ASCII));
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns data a few bytes at a time to exercise headers split across reads.
+     */
+    private static class TrickleChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private final Random random;
+
+        TrickleChannel(byte[] data, Random random) {
+            this.data = ByteBuffer.wrap(data);
+            this.random = random;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) return -1;
+            int n = Math.min(Math.min(dst.remaining(), data.remaining()), 1 + random.nextInt(50));
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            data.position(data.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     @Test(expected = ParsingException.class)
     public void testErr() throws IOException {
         new ChunkedBody(Channels.newChannel(new ByteArrayInputStream(new byte[0])), ByteBuffer.allocate(16))
@@ -13,9 +13,14 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class GunzipChannelTest {
 
@@ -44,4 +49,124 @@ public class GunzipChannelTest {
 
     }
 
+    @Test
+    public void directBuffers() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gzos = new GZIPOutputStream(baos);
+        gzos.write("Hello world".getBytes());
+        gzos.finish();
+
+        ByteBuffer inBuffer = ByteBuffer.allocateDirect(1024);
+        inBuffer.put(baos.toByteArray());
+        inBuffer.flip();
+        GunzipChannel channel = new GunzipChannel(Channels.newChannel(new ByteArrayInputStream(new byte[0])), inBuffer);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+        while (channel.read(buffer) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertEquals("Hello world", new String(bytes));
+    }
+
+    @Test
+    public void inflaterDirectAndReadOnlyBuffers() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(1).nextBytes(data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(baos)) {
+            out.write(data);
+        }
+        for (boolean forceArrayInput : new boolean[]{false, true}) {
+            GunzipChannel.forceArrayInput = forceArrayInput;
+            try {
+                ByteBuffer direct = ByteBuffer.allocateDirect(baos.size());
+                direct.put(baos.toByteArray());
+                direct.flip();
+                ByteBuffer readOnly = ByteBuffer.wrap(baos.toByteArray()).asReadOnlyBuffer();
+                for (ByteBuffer inBuffer : Arrays.asList(direct, readOnly)) {
+                    InflaterChannel channel = new InflaterChannel(IOUtils.END_OF_INPUT, inBuffer, BufferPool.UNPOOLED);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    ByteBuffer buffer = ByteBuffer.allocate(4096);
+                    while (channel.read(buffer) >= 0) {
+                        output.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                    assertArrayEquals(data, output.toByteArray());
+                }
+            } finally {
+                GunzipChannel.forceArrayInput = false;
+            }
+        }
+    }
+
+    @Test
+    public void skipMemberPastStrayMagic() throws IOException {
+        // stored deflate blocks copy their input so gzip magic numbers in the data appear in the compressed member
+        byte[] data = new byte[200000];
+        Random random = new Random(2);
+        random.nextBytes(data);
+        for (int i = 8; i + 4 <= data.length; i += 1000) {
+            data[i] = 0x1f;
+            data[i + 1] = (byte) 0x8b;
+            data[i + 2] = 8;
+            data[i + 3] = 0;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GzipChannel gzip = new GzipChannel(Channels.newChannel(baos), 8192)) {
+            gzip.setLevel(0);
+            gzip.write(ByteBuffer.wrap(data));
+            gzip.finish();
+            gzip.write(ByteBuffer.wrap("second".getBytes()));
+        }
+
+        ByteBuffer inBuffer = ByteBuffer.wrap(baos.toByteArray()).asReadOnlyBuffer();
+        GunzipChannel channel = new GunzipChannel(IOUtils.END_OF_INPUT, inBuffer);
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        channel.read(buffer);
+        assertTrue(channel.skipMember(data.length));
+
+        buffer = ByteBuffer.allocate(20);
+        while (channel.read(buffer) >= 0) {
+            // keep reading
+        }
+        assertEquals("second", new String(buffer.array(), 0, buffer.position()));
+    }
+
+    @Test
+    public void arrayInputFallback() throws IOException {
+        byte[] data = new byte[200000];
+        new Random(0).nextBytes(data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            GZIPOutputStream gzos = new GZIPOutputStream(baos);
+            gzos.write(data);
+            gzos.finish();
+        }
+
+        GunzipChannel.forceArrayInput = true;
+        try {
+            // the whole input in a read-only buffer, as when a WarcReader is given a ByteBuffer or maps a file
+            ByteBuffer inBuffer = ByteBuffer.wrap(baos.toByteArray()).asReadOnlyBuffer();
+            GunzipChannel channel = new GunzipChannel(IOUtils.END_OF_INPUT, inBuffer);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                output.write(bytes);
+                buffer.clear();
+            }
+            assertEquals(3 * data.length, output.size());
+            assertArrayEquals(data, Arrays.copyOfRange(output.toByteArray(), 2 * data.length, 3 * data.length));
+            assertEquals(baos.size(), channel.inputPosition());
+        } finally {
+            GunzipChannel.forceArrayInput = false;
+        }
+    }
+
 }
\ No newline at end of file
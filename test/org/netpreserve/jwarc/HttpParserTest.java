@@ -0,0 +1,160 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpParserTest {
+    private static final String RESPONSE = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n";
+
+    @Test
+    public void lenientWellFormed() {
+        Result result = parseLenient(RESPONSE);
+        assertEquals(0, result.anomalies);
+        assertEquals(Arrays.asList("version 1.1", "status 200", "reason OK", "name Content-Type",
+                "value text/html"), result.events);
+    }
+
+    @Test
+    public void lenientBareLf() {
+        Result result = parseLenient("HTTP/1.1 200 OK\nContent-Type: text/html\r\n\r\n");
+        assertEquals(1, result.anomalies);
+        assertTrue(result.events.contains("value text/html"));
+    }
+
+    @Test
+    public void lenientBlankLineBeforeStartLine() {
+        Result result = parseLenient("\r\n" + RESPONSE);
+        assertEquals(1, result.anomalies);
+        assertTrue(result.events.contains("status 200"));
+    }
+
+    @Test
+    public void lenientContinuationWithoutField() {
+        Result result = parseLenient("HTTP/1.1 200 OK\r\n folded\r\nContent-Type: text/html\r\n\r\n");
+        assertEquals(1, result.anomalies);
+        assertTrue(result.events.contains("value text/html"));
+    }
+
+    @Test
+    public void lenientJunkLine() {
+        Result result = parseLenient("HTTP/1.1 200 OK\r\nnot a header\r\nContent-Type: text/html\r\n\r\n");
+        assertEquals(1, result.anomalies);
+        assertTrue(result.events.contains("value text/html"));
+    }
+
+    @Test
+    public void lenientWhitespaceAroundName() {
+        Result result = parseLenient("HTTP/1.1 200 OK\r\nContent-Type : text/html\r\n\r\n");
+        assertEquals(1, result.anomalies);
+        assertTrue(result.events.contains("name Content-Type"));
+    }
+
+    @Test
+    public void lenientOversizedHeader() {
+        StringBuilder message = new StringBuilder("HTTP/1.1 200 OK\r\n");
+        char[] value = new char[60000];
+        Arrays.fill(value, 'x');
+        for (int i = 0; i < 20; i++) {
+            message.append("X-Big-").append(i).append(": ").append(value).append("\r\n");
+        }
+        message.append("\r\n");
+        Result result = parseLenient(message.toString());
+        assertEquals(1, result.anomalies);
+        // the header block is cut short after 1 MiB
+        assertTrue(result.events.contains("name X-Big-16"));
+        assertFalse(result.events.contains("name X-Big-19"));
+    }
+
+    @Test
+    public void lenientLongStatusCode() {
+        Result result = parseLenient("HTTP/1.1 2000 OK\r\n\r\n");
+        assertEquals(1, result.anomalies);
+        assertEquals(Arrays.asList("version 1.1", "status 200", "reason OK"), result.events);
+    }
+
+    @Test
+    public void lenientAnyMessage() {
+        Result request = parseLenient("GET / HTTP/1.1\r\nHost: example.org\r\n\r\n", null);
+        assertEquals(0, request.anomalies);
+        assertEquals(Arrays.asList("method GET", "target /", "version 1.1", "name Host", "value example.org"),
+                request.events);
+        Result response = parseLenient(RESPONSE, null);
+        assertEquals(0, response.anomalies);
+        assertTrue(response.events.contains("status 200"));
+
+        // restricted to responses a request line is junk
+        Result junk = parseLenient("GET / HTTP/1.1\r\n\r\n", false);
+        assertTrue(junk.anomalies > 0);
+    }
+
+    private static Result parseLenient(String message) {
+        return parseLenient(message, false);
+    }
+
+    /**
+     * @param request true for requestOnly(), false for responseOnly() or null for any message
+     */
+    private static Result parseLenient(String message, Boolean request) {
+        Result result = new Result();
+        HttpParser parser = new HttpParser(result);
+        if (request != null) {
+            if (request) {
+                parser.requestOnly();
+            } else {
+                parser.responseOnly();
+            }
+        }
+        parser.lenient();
+        parser.parse(ByteBuffer.wrap(message.getBytes(ISO_8859_1)));
+        assertTrue(parser.isFinished());
+        result.anomalies = parser.anomalies();
+        return result;
+    }
+
+    private static class Result implements HttpParser.Handler {
+        private final List<String> events = new ArrayList<>();
+        private int anomalies;
+
+        public void version(int major, int minor) {
+            events.add("version " + major + "." + minor);
+        }
+
+        public void name(String name) {
+            events.add("name " + name);
+        }
+
+        public void value(String value) {
+            events.add("value " + value);
+        }
+
+        public void method(String method) {
+            events.add("method " + method);
+        }
+
+        public void reason(String reason) {
+            events.add("reason " + reason);
+        }
+
+        public void status(int status) {
+            events.add("status " + status);
+        }
+
+        public void target(String target) {
+            events.add("target " + target);
+        }
+    }
+}
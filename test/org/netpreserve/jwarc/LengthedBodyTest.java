@@ -41,6 +41,18 @@ public class LengthedBodyTest {
                 assertEquals("3456", US_ASCII.decode(b).toString());
             }
 
+            {
+                // seeking past what's buffered must account for the channel being ahead of the body
+                channel.position(6);
+                ByteBuffer readAhead = ByteBuffer.wrap("0123".getBytes(US_ASCII));
+                SeekableByteChannel body2 = (SeekableByteChannel) LengthedBody.create(channel, readAhead, 10);
+                body2.position(8);
+                ByteBuffer b = ByteBuffer.allocate(4);
+                body2.read(b);
+                b.flip();
+                assertEquals("89", US_ASCII.decode(b).toString());
+            }
+
         }
     }
 
@@ -9,7 +9,9 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MediaTypeTest {
 
@@ -29,4 +31,32 @@ public class MediaTypeTest {
         assertTrue(type.base().parameters().isEmpty());
     }
 
+    @Test
+    public void cache() {
+        String string = "text/html; charset=UTF-8";
+        MediaType type = MediaType.parse(string);
+        assertSame(type, MediaType.parse(new String(string)));
+        assertSame(MediaType.HTML, type.base());
+        assertEquals(MediaType.HTML, MediaType.parse("TEXT/HTML").base());
+        assertEquals("TEXT/HTML", MediaType.parse("TEXT/HTML").base().toString());
+        assertEquals("Text/HTML", MediaType.parse("Text/HTML;charset=utf-8").base().toString());
+        assertEquals("IMAGE/Png", MediaType.parse("IMAGE/Png").base().toString());
+        assertEquals("image/png", MediaType.parse("image/png").base().toString());
+        assertSame(type.base(), type.base());
+        assertEquals("image/jpeg", MediaType.parse("image/jpeg;q=1").base().toString());
+
+        StringBuilder longValue = new StringBuilder("text/plain;x=");
+        for (int i = 0; i < 300; i++) longValue.append('a');
+        assertEquals(300, MediaType.parse(longValue.toString()).parameters().get("x").length());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                MediaType.parse("text/html;;");
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
 }
\ No newline at end of file
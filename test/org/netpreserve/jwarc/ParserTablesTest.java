@@ -0,0 +1,83 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParserTablesTest {
+    private static final int[] STOP_BYTES = {0x00, 0x09, 0x0a, 0x0d, 0x20, 0x7f, 0x80, 0xc3, 0xff};
+
+    @Test
+    public void runEndMatchesByteLoop() {
+        boolean[] visible = loop(0x21, 0x7e);
+        // like a header value: also loops on spaces, tabs and UTF-8 bytes, which the word test can't skip over
+        boolean[] value = loop(0x21, 0xff);
+        value[' '] = true;
+        value['\t'] = true;
+        boolean[] covers = ParserTables.coversVisibleAscii(new boolean[][]{null, visible, value, loop(0x30, 0x39)});
+        assertTrue(covers[1]);
+        assertTrue(covers[2]);
+        assertFalse(covers[3]);
+
+        for (boolean[] loop : new boolean[][]{visible, value}) {
+            for (int length = 0; length <= 24; length++) {
+                for (int stop = 0; stop <= length; stop++) {
+                    for (int stopByte : STOP_BYTES) {
+                        // surrounded by bytes in the loop so reading outside p..pe would show up
+                        byte[] data = new byte[length + 16];
+                        Arrays.fill(data, (byte) 'x');
+                        int p = 8;
+                        int pe = p + length;
+                        for (int i = p; i < pe; i++) {
+                            data[i] = (byte) ('a' + i % 26);
+                        }
+                        if (stop < length) {
+                            data[p + stop] = (byte) stopByte;
+                        }
+                        String message = "length " + length + " stop " + stop + " byte " + stopByte;
+                        int expected = byteLoop(data, p, pe, loop);
+                        assertEquals(message, expected, ParserTables.runEnd(data, p, pe, loop, true));
+                        assertEquals(message, expected, ParserTables.runEnd(data, p, pe, loop, false));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void runEndHighBitBytesInEveryLane() {
+        boolean[] value = loop(0x20, 0xff);
+        for (int lane = 0; lane < 8; lane++) {
+            // the word containing the UTF-8 bytes falls back to the byte loop, which keeps going
+            byte[] data = "abcdefghijklmnopqrstuvwx".getBytes();
+            data[8 + lane] = (byte) 0xc3;
+            assertEquals(data.length, ParserTables.runEnd(data, 0, data.length, value, true));
+            data[16] = '\r';
+            assertEquals(16, ParserTables.runEnd(data, 0, data.length, value, true));
+        }
+    }
+
+    private static boolean[] loop(int from, int to) {
+        boolean[] loop = new boolean[256];
+        for (int b = from; b <= to; b++) {
+            loop[b] = true;
+        }
+        return loop;
+    }
+
+    private static int byteLoop(byte[] data, int p, int pe, boolean[] loop) {
+        while (p < pe && loop[data[p] & 0xff]) {
+            p++;
+        }
+        return p;
+    }
+}
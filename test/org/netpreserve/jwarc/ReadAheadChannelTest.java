@@ -0,0 +1,75 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReadAheadChannelTest {
+    @Test
+    public void test() throws IOException {
+        byte[] data = new byte[200000];
+        new Random(0).nextBytes(data);
+        Path temp = Files.createTempFile("jwarc-test", ".bin");
+        try {
+            Files.write(temp, data);
+            try (ReadAheadChannel channel = new ReadAheadChannel(FileChannel.open(temp), 32 * 1024)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                IOUtils.copy(Channels.newInputStream(channel), out);
+                assertArrayEquals(data, out.toByteArray());
+                assertEquals(data.length, channel.position());
+
+                // backwards, then a short skip forward within the read-ahead window, then a long one
+                for (long position : new long[]{1000, 5000, 150000}) {
+                    channel.position(position);
+                    ByteBuffer buffer = ByteBuffer.allocate(100);
+                    while (buffer.hasRemaining()) {
+                        channel.read(buffer);
+                    }
+                    assertArrayEquals(Arrays.copyOfRange(data, (int) position, (int) position + 100), buffer.array());
+                    assertEquals(position + 100, channel.position());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void warcReader() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, WarcReaderTest.gzippedRecords(new Random(0), 10));
+            StringBuilder expected = new StringBuilder();
+            try (WarcReader reader = new WarcReader(temp)) {
+                for (WarcRecord record : reader) {
+                    expected.append(reader.position()).append(((WarcTargetRecord) record).target()).append('\n');
+                }
+            }
+            StringBuilder actual = new StringBuilder();
+            try (WarcReader reader = new WarcReader(new ReadAheadChannel(FileChannel.open(temp), 64 * 1024))) {
+                for (WarcRecord record : reader) {
+                    actual.append(reader.position()).append(((WarcTargetRecord) record).target()).append('\n');
+                }
+            }
+            assertEquals(expected.toString(), actual.toString());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class RotatingWarcWriterTest {
+
+    @Test
+    public void rotatesByRecordCount() throws Exception {
+        Path dir = Files.createTempDirectory("jwarc-test");
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try (RotatingWarcWriter writer = new RotatingWarcWriter(dir, "test-{serial}.warc.gz",
+                    WarcCompression.GZIP)) {
+                writer.setMaxRecords(7);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int thread = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < 25; i++) {
+                            writer.write(resource("http://example.org/" + thread + "/" + i));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                assertTrue(Files.exists(dir.resolve(writer.currentPath().getFileName() + ".open")));
+            } finally {
+                executor.shutdown();
+            }
+
+            List<Path> files = list(dir);
+            assertEquals(15, files.size());
+            Set<String> uris = new HashSet<>();
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                assertEquals(String.format("test-%05d.warc.gz", i), file.getFileName().toString());
+                try (WarcReader reader = new WarcReader(file)) {
+                    assertEquals(WarcCompression.GZIP, reader.compression());
+                    Warcinfo warcinfo = (Warcinfo) reader.next().orElseThrow(AssertionError::new);
+                    assertEquals(file.getFileName().toString(), warcinfo.filename().orElse(null));
+                    int count = 0;
+                    for (WarcRecord record : reader) {
+                        uris.add(((WarcResource) record).target());
+                        count++;
+                    }
+                    assertEquals(i == files.size() - 1 ? 2 : 7, count);
+                }
+            }
+            assertEquals(100, uris.size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void rotatesBySizeAndAge() throws Exception {
+        Path dir = Files.createTempDirectory("jwarc-test");
+        try {
+            MutableClock clock = new MutableClock(Instant.parse("2020-01-02T03:04:05.678Z"));
+            try (RotatingWarcWriter writer = new RotatingWarcWriter(dir, "{timestamp}-{serial}.warc",
+                    WarcCompression.NONE)) {
+                writer.clock = clock;
+                writer.setMaxFileSize(1000);
+                writer.setMaxAge(Duration.ofMinutes(1));
+                writer.setWarcinfo(filename -> new Warcinfo.Builder().filename(filename)
+                        .body(MediaType.WARC_FIELDS, "software: test\r\n".getBytes(UTF_8)).build());
+                for (int i = 0; i < 6; i++) {
+                    writer.write(resource("http://example.org/" + i));
+                }
+                clock.instant = clock.instant.plusSeconds(60);
+                writer.write(resource("http://example.org/later/1"));
+                writer.write(resource("http://example.org/later/2"));
+                writer.rotate();
+                assertNull(writer.currentPath());
+            }
+
+            List<Path> files = list(dir);
+            assertTrue(files.size() >= 3);
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                String timestamp = i == files.size() - 1 ? "20200102030505678" : "20200102030405678";
+                assertEquals(String.format("%s-%05d.warc", timestamp, i), file.getFileName().toString());
+                List<WarcRecord> records = new ArrayList<>();
+                try (WarcReader reader = new WarcReader(file)) {
+                    Warcinfo warcinfo = (Warcinfo) reader.next().orElseThrow(AssertionError::new);
+                    assertEquals("test", warcinfo.fields().first("software").orElse(null));
+                    reader.forEach(records::add);
+                }
+                if (i == files.size() - 1) {
+                    assertEquals(2, records.size());
+                    assertEquals("http://example.org/later/1", ((WarcResource) records.get(0)).target());
+                } else if (i < files.size() - 2) {
+                    assertTrue(Files.size(file) >= 1000);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void timestampOnlyTemplate() throws Exception {
+        Path dir = Files.createTempDirectory("jwarc-test");
+        try {
+            try (RotatingWarcWriter writer = new RotatingWarcWriter(dir, "{timestamp}.warc", WarcCompression.NONE)) {
+                writer.clock = new MutableClock(Instant.parse("2020-01-02T03:04:05.678Z"));
+                writer.setMaxRecords(1);
+                for (int i = 0; i < 3; i++) {
+                    writer.write(resource("http://example.org/" + i));
+                }
+            }
+            assertEquals(Arrays.asList("20200102030405678.warc", "20200102030405679.warc", "20200102030405680.warc"),
+                    list(dir).stream().map(p -> p.getFileName().toString()).collect(Collectors.toList()));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void keepsBothFailures() throws Exception {
+        Path dir = Files.createTempDirectory("jwarc-test");
+        try {
+            try (RotatingWarcWriter writer = new RotatingWarcWriter(dir, "test-{serial}.warc", WarcCompression.NONE)) {
+                writer.setMaxRecords(1);
+                writer.write(resource("http://example.org/"));
+                // make finishing the first file fail
+                Files.delete(dir.resolve("test-00000.warc.open"));
+                ReadableByteChannel failing = new ReadableByteChannel() {
+                    public int read(ByteBuffer dst) throws IOException {
+                        throw new IOException("source failed");
+                    }
+
+                    public boolean isOpen() {
+                        return true;
+                    }
+
+                    public void close() {
+                    }
+                };
+                try {
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/"))
+                            .body(MediaType.OCTET_STREAM, failing, 100).build());
+                    fail("expected IOException");
+                } catch (IOException e) {
+                    assertEquals("source failed", e.getMessage());
+                    assertEquals(1, e.getSuppressed().length);
+                    assertTrue(e.getSuppressed()[0] instanceof NoSuchFileException);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void skipsExistingFiles() throws Exception {
+        Path dir = Files.createTempDirectory("jwarc-test");
+        try {
+            Files.createFile(dir.resolve("test-00000.warc"));
+            Files.createFile(dir.resolve("test-00001.warc.open"));
+            try (RotatingWarcWriter writer = new RotatingWarcWriter(dir, "test-{serial}.warc", WarcCompression.NONE)) {
+                writer.write(resource("http://example.org/"));
+                assertEquals(dir.resolve("test-00002.warc"), writer.currentPath());
+            }
+            assertTrue(Files.size(dir.resolve("test-00002.warc")) > 0);
+            assertFalse(Files.exists(dir.resolve("test-00002.warc.open")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static WarcResource resource(String uri) {
+        return new WarcResource.Builder(URI.create(uri))
+                .body(MediaType.OCTET_STREAM, new byte[100]).build();
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        for (Path file : list(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public java.time.ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WarcParserTest {
+    @Test
+    public void headers() {
+        WarcParser parser = new WarcParser();
+        byte[] input = ("WARC/1.0\r\n" +
+                "WARC-Type: resource\r\n" +
+                "warc-concurrent-to: <urn:a>\r\n" +
+                "X-Custom: caf\u00e9\r\n" +
+                "WARC-Concurrent-To: <urn:b>\r\n" +
+                "Content-Length: 0\r\n\r\n").getBytes(UTF_8);
+        parser.parse(ByteBuffer.wrap(input));
+        assertTrue(parser.isFinished());
+        MessageHeaders headers = parser.headers();
+
+        assertEquals(Optional.of("resource"), headers.sole("warc-type"));
+        assertEquals(Optional.of("caf\u00e9"), headers.first("X-Custom"));
+        assertSame(headers.first("X-Custom").get(), headers.sole("x-custom").get());
+        assertEquals(Arrays.asList("<urn:a>", "<urn:b>"), headers.all("WARC-Concurrent-To"));
+        assertEquals(Collections.emptyList(), headers.all("WARC-Date"));
+        assertEquals(Optional.empty(), headers.first("WARC-Date"));
+        assertEquals(Arrays.asList("<urn:a>", "<urn:b>"), headers.map().get("WARC-CONCURRENT-TO"));
+
+        try {
+            headers.sole("WARC-Concurrent-To");
+            throw new AssertionError("expected exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // nor do they refer to the caller's buffer
+        Arrays.fill(input, (byte) 'x');
+        assertEquals(Optional.of("caf\u00e9"), headers.first("X-Custom"));
+        assertEquals(Arrays.asList("<urn:a>", "<urn:b>"), headers.all("WARC-Concurrent-To"));
+
+        // the parser reuses its storage but headers already returned must not change
+        parser.reset();
+        parser.parse(ByteBuffer.wrap("WARC/1.0\r\nWARC-Type: request\r\n\r\n".getBytes(UTF_8)));
+        assertEquals(Optional.of("request"), parser.headers().sole("WARC-Type"));
+        assertEquals(Optional.of("resource"), headers.sole("WARC-Type"));
+    }
+
+    @Test
+    public void lazyValues() {
+        byte[] input = ("WARC/1.0\r\n" +
+                "X-Empty:\r\n" +
+                "X-Two: \u00e9\u00e8\r\n" +
+                "X-Repeated: one\r\n" +
+                "X-Three: \u65e5\u672c\u8a9e\r\n" +
+                "x-repeated: \u0434\u0432\u0430\r\n" +
+                "X-Four: \ud83d\ude00\ud83d\ude01\r\n" +
+                "X-REPEATED: three\r\n" +
+                "X-Last: end\r\n\r\n").getBytes(UTF_8);
+
+        // each lookup method decoding a value for the first time
+        WarcParser parser = new WarcParser();
+        parser.parse(ByteBuffer.wrap(input));
+        MessageHeaders headers = parser.headers();
+        assertEquals(Optional.of(""), headers.sole("X-Empty"));
+        assertEquals(Optional.of("\u00e9\u00e8"), headers.first("x-two"));
+        assertEquals(Arrays.asList("one", "\u0434\u0432\u0430", "three"), headers.all("X-Repeated"));
+        assertEquals(Optional.of("one"), headers.first("X-REPEATED"));
+        assertEquals(Collections.singletonList("\u65e5\u672c\u8a9e"), headers.all("X-Three"));
+        Map<String, List<String>> map = headers.map();
+        assertEquals(Collections.singletonList("\ud83d\ude00\ud83d\ude01"), map.get("x-four"));
+        assertEquals(Collections.singletonList("end"), map.get("X-Last"));
+        assertEquals(6, map.size());
+
+        // the map decoding values first, then the other methods reading them again
+        parser.reset();
+        parser.parse(ByteBuffer.wrap(input));
+        headers = parser.headers();
+        map = headers.map();
+        assertEquals(Arrays.asList("one", "\u0434\u0432\u0430", "three"), map.get("X-REPEATED"));
+        assertSame(map.get("X-Two").get(0), headers.sole("X-Two").get());
+        assertSame(map.get("X-Three").get(0), headers.first("X-Three").get());
+        assertSame(map.get("X-Repeated").get(1), headers.all("X-Repeated").get(1));
+        assertEquals(Optional.of("\ud83d\ude00\ud83d\ude01"), headers.sole("X-Four"));
+        assertEquals(Optional.of(""), headers.sole("X-Empty"));
+        assertEquals(map, headers.map());
+    }
+
+    @Test
+    public void largeValues() {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 5000; i++) big.append((char) ('a' + i % 26));
+        WarcParser parser = new WarcParser();
+        for (int i = 0; i < 2; i++) {
+            parser.reset();
+            parser.parse(ByteBuffer.wrap(("WARC/1.0\r\nX-Big: " + big + "\r\nX-Folded: one\r\n two\r\n" +
+                    "X-Small: " + i + "\r\n\r\n").getBytes(UTF_8)));
+            assertTrue(parser.isFinished());
+            MessageHeaders headers = parser.headers();
+            assertEquals(Optional.of(big.toString()), headers.sole("X-Big"));
+            assertEquals(Optional.of("one two"), headers.sole("X-Folded"));
+            assertEquals(Optional.of(String.valueOf(i)), headers.sole("X-Small"));
+        }
+    }
+
+    @Test
+    public void splitAtEveryOffset() {
+        byte[] input = ("WARC/1.0\r\n" +
+                "WARC-Type: response\r\n" +
+                "WARC-Target-URI: http://example.org/a/rather/long/path?with=a&query=string\r\n" +
+                "X-Twelve-Bytes: abcdefghijkl\r\n" +
+                "X-Non-ASCII: caf\u00e9 \u00fcber \u65e5\u672c\u8a9e \ud83d\ude00 end\r\n" +
+                "X-Folded: first line\r\n" +
+                "   second\tline with\ttabs\r\n" +
+                "\tthird\r\n" +
+                "x-folded: again\r\n" +
+                "X-Empty:\r\n" +
+                "Content-Length: 12345\r\n" +
+                "\r\n").getBytes(UTF_8);
+        WarcParser whole = new WarcParser();
+        whole.parse(ByteBuffer.wrap(input));
+        assertTrue(whole.isFinished());
+        MessageHeaders expected = whole.headers();
+        assertEquals(Arrays.asList("first line second\tline with\ttabs third", "again"), expected.all("X-Folded"));
+        assertEquals(Optional.of("caf\u00e9 \u00fcber \u65e5\u672c\u8a9e \ud83d\ude00 end"),
+                expected.sole("X-Non-ASCII"));
+
+        for (int split = 0; split <= input.length; split++) {
+            WarcParser parser = new WarcParser();
+            ByteBuffer buffer = ByteBuffer.wrap(input, 0, split);
+            parser.parse(buffer);
+            assertEquals("split at " + split, split, buffer.position());
+            buffer.limit(input.length);
+            parser.parse(buffer);
+            assertTrue("split at " + split, parser.isFinished());
+            assertEquals("split at " + split, input.length, buffer.position());
+            assertEquals("split at " + split, expected.map(), parser.headers().map());
+            assertEquals("split at " + split, whole.version(), parser.version());
+        }
+
+        WarcParser parser = new WarcParser();
+        for (int i = 0; i < input.length; i++) {
+            parser.parse(ByteBuffer.wrap(input, i, 1));
+        }
+        assertTrue(parser.isFinished());
+        assertEquals(expected.map(), parser.headers().map());
+    }
+
+    @Test
+    public void directBufferScratch() {
+        // direct buffers are parsed through an 8192 byte scratch array, so move where its boundary falls in a value
+        // that runs across it
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 10000; i++) big.append((char) ('a' + i % 26));
+        for (int shift = 0; shift < 16; shift++) {
+            StringBuilder padding = new StringBuilder();
+            for (int i = 0; i < shift; i++) padding.append('p');
+            byte[] input = ("WARC/1.0\r\nX-Padding: " + padding + "\r\nX-Big: " + big + "\r\n" +
+                    "X-After: caf\u00e9\r\n\r\n").getBytes(UTF_8);
+            ByteBuffer direct = ByteBuffer.allocateDirect(input.length);
+            direct.put(input).flip();
+            WarcParser parser = new WarcParser();
+            parser.parse(direct);
+            assertTrue(parser.isFinished());
+            assertEquals(Optional.of(big.toString()), parser.headers().sole("X-Big"));
+            assertEquals(Optional.of("caf\u00e9"), parser.headers().sole("X-After"));
+        }
+    }
+
+    @Test
+    public void internedNames() {
+        byte[] name = "WARC-Target-URI".getBytes(UTF_8);
+        assertSame(FieldNames.intern(name, 0, name.length), FieldNames.intern(name, 0, name.length));
+        byte[] lower = "warc-target-uri".getBytes(UTF_8);
+        assertEquals("warc-target-uri", FieldNames.intern(lower, 0, lower.length));
+    }
+
+    @Test
+    public void dates() {
+        for (String date : new String[]{"2019-02-28T23:59:59Z", "1970-01-01T00:00:00Z", "2000-02-29T12:30:01Z",
+                "1969-12-31T23:59:59Z", "2019-02-28T23:59:59.123Z", "9999-12-31T23:59:59Z"}) {
+            assertEquals(date, Instant.parse(date), WarcRecord.parseDate(date));
+        }
+        for (String date : new String[]{"2019-02-29T00:00:00Z", "2019-13-01T00:00:00Z",
+                "2019-01-0xT00:00:00Z", "2019-01-01 00:00:00Z"}) {
+            try {
+                WarcRecord.parseDate(date);
+                throw new AssertionError("expected exception for " + date);
+            } catch (DateTimeParseException e) {
+                // expected
+            }
+        }
+    }
+}
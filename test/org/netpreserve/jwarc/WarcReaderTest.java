@@ -8,9 +8,44 @@ package org.netpreserve.jwarc;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.DataFormatException;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class WarcReaderTest {
     @Test
@@ -19,4 +54,465 @@ public class WarcReaderTest {
 //        assertFalse(reader.iterator().hasNext());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void parallelGzip() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 30));
+            List<String> expected = summarise(new WarcReader(temp));
+            List<String> actual = summarise(new WarcReader(temp, executor));
+            assertEquals(30, expected.size());
+            assertEquals(expected, actual);
+
+            List<Integer> capacities = Collections.synchronizedList(new ArrayList<>());
+            BufferPool pool = new BufferPool(1024, 4) {
+                @Override
+                public ByteBuffer acquireBuffer() {
+                    ByteBuffer buffer = super.acquireBuffer();
+                    capacities.add(buffer.capacity());
+                    return buffer;
+                }
+            };
+            assertEquals(expected, summarise(new WarcReader(temp, executor, pool)));
+            assertFalse(capacities.isEmpty());
+            assertEquals(Collections.nCopies(capacities.size(), 1024), capacities);
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void memoryMappedGzip() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 10));
+            List<String> expected = summarise(new WarcReader(temp));
+            try (FileChannel channel = FileChannel.open(temp)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                WarcReader reader = new WarcReader(mapped);
+                assertEquals(WarcCompression.GZIP, reader.compression());
+                assertEquals(expected, summarise(reader));
+                assertEquals(0, mapped.position());
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void directBuffer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (WarcWriter writer = new WarcWriter(out)) {
+            writer.write(new Warcinfo.Builder().fields(Collections.singletonMap("software", Arrays.asList("jwarc"))).build());
+        }
+        byte[] warc = out.toByteArray();
+        ByteBuffer direct = ByteBuffer.allocateDirect(warc.length);
+        direct.put(warc).flip();
+        WarcReader reader = new WarcReader(direct);
+        assertEquals(WarcCompression.NONE, reader.compression());
+        assertEquals("warcinfo", reader.next().get().type());
+        assertFalse(reader.next().isPresent());
+    }
+
+    @Test
+    public void readOnlyPrefixBuffer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (WarcWriter writer = new WarcWriter(out)) {
+            for (int i = 0; i < 5; i++) {
+                writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                        .body(MediaType.OCTET_STREAM, new byte[i * 1000]).build());
+            }
+        }
+        for (byte[] warc : new byte[][]{out.toByteArray(), gzippedRecords(new Random(0), 5)}) {
+            List<String> expected = summarise(new WarcReader(ByteBuffer.wrap(warc)));
+            assertEquals(5, expected.size());
+
+            // only a read-only view of the start is in the buffer so the rest must come from the channel
+            int split = 100;
+            ByteBuffer prefix = ByteBuffer.wrap(warc, 0, split).asReadOnlyBuffer();
+            ReadableByteChannel rest = Channels.newChannel(new ByteArrayInputStream(warc, split, warc.length - split));
+            WarcReader reader = new WarcReader(rest, prefix);
+            assertEquals(expected, summarise(reader));
+            assertEquals(0, prefix.position());
+
+            // nor is it mistaken for the whole input when it comes to seeking
+            reader = new WarcReader(Channels.newChannel(new ByteArrayInputStream(warc)),
+                    ByteBuffer.allocate(0).asReadOnlyBuffer());
+            try {
+                reader.position(0);
+                throw new AssertionError("expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void fastSkip() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 10));
+            List<String> expected = headers(new WarcReader(temp), false);
+            assertEquals(10, expected.size());
+            assertEquals(expected, headers(new WarcReader(temp), true));
+            try (FileChannel channel = FileChannel.open(temp)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                assertEquals(expected, headers(new WarcReader(mapped), true));
+            }
+
+            // same records with the member length in an 'sl' extra field
+            Files.write(temp, addMemberLengths(Files.readAllBytes(temp)));
+            expected = headers(new WarcReader(temp), false);
+            assertEquals(10, expected.size());
+            assertEquals(expected, headers(new WarcReader(temp), true));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void randomAccess() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 10));
+            checkRandomAccess(temp);
+
+            try (WarcWriter writer = new WarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING))) {
+                for (int i = 0; i < 10; i++) {
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.OCTET_STREAM, new byte[i * 1000]).build());
+                }
+            }
+            checkRandomAccess(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void pooled() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 5));
+            List<String> expected = summarise(new WarcReader(temp));
+            BufferPool pool = new BufferPool();
+            assertEquals(expected, summarise(new WarcReader(temp, pool)));
+            // the second reader gets the buffers and inflater released by the first
+            assertEquals(expected, summarise(new WarcReader(temp, pool)));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void nextAfterClosingBody() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (WarcWriter writer = new WarcWriter(out)) {
+            for (int i = 0; i < 3; i++) {
+                writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                        .body(MediaType.OCTET_STREAM, new byte[100000]).build());
+            }
+        }
+        Path temp = Files.createTempFile("jwarc-test", ".warc");
+        try {
+            Files.write(temp, out.toByteArray());
+            List<WarcReader> readers = Arrays.asList(
+                    new WarcReader(new ByteArrayInputStream(out.toByteArray())),
+                    new WarcReader(temp),
+                    new WarcReader(temp, new BufferPool()));
+            for (WarcReader reader : readers) {
+                try (WarcReader r = reader) {
+                    List<String> targets = new ArrayList<>();
+                    for (WarcRecord record : r) {
+                        try (InputStream stream = record.body().stream()) {
+                            assertEquals(0, stream.read());
+                        }
+                        targets.add(((WarcResource) record).target());
+                    }
+                    assertEquals(Arrays.asList("http://example.org/0", "http://example.org/1",
+                            "http://example.org/2"), targets);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void adaptiveBuffer() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 10));
+            List<String> expected = summarise(new WarcReader(temp));
+            WarcReader reader = new WarcReader(temp, new BufferPool(1024, 0));
+            reader.setMaxBufferSize(64 * 1024);
+            assertEquals(expected, summarise(reader));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void splitting() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 9));
+            checkSplitting(temp);
+
+            try (WarcWriter writer = new WarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING))) {
+                for (int i = 0; i < 50; i++) {
+                    byte[] body = ("junk\r\n\r\nWARC/1.0\r\nnot a header " + i).getBytes(US_ASCII);
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.OCTET_STREAM, Arrays.copyOf(body, 500 + i)).build());
+                }
+            }
+            checkSplitting(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void sharding() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 9));
+            checkSharding(temp);
+
+            try (WarcWriter writer = new WarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING))) {
+                for (int i = 0; i < 20; i++) {
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.OCTET_STREAM, new byte[i * 100]).build());
+                }
+            }
+            checkSharding(temp);
+
+            // archived WARC files are stored uncompressed in the record bodies
+            try (WarcWriter writer = new WarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING))) {
+                for (int i = 0; i < 20; i++) {
+                    ByteArrayOutputStream embedded = new ByteArrayOutputStream();
+                    try (WarcWriter embeddedWriter = new WarcWriter(embedded)) {
+                        for (int j = 0; j < i % 3 + 1; j++) {
+                            embeddedWriter.write(new WarcResource.Builder(URI.create("http://embedded.example/" + j))
+                                    .body(MediaType.OCTET_STREAM, new byte[300]).build());
+                        }
+                    }
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.parse("application/warc"), embedded.toByteArray()).build());
+                }
+            }
+            checkSharding(temp);
+            checkSplitting(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void checkSharding(Path path) throws IOException {
+        List<String> expected = new ArrayList<>();
+        try (WarcReader reader = new WarcReader(path)) {
+            for (WarcRecord record : reader) {
+                expected.add(reader.position() + " " + ((WarcTargetRecord) record).target());
+            }
+        }
+
+        long[] boundaries = WarcReader.shardBoundaries(path, 2000);
+        assertTrue(boundaries.length > 3);
+        assertEquals(0, boundaries[0]);
+        assertEquals(Files.size(path), boundaries[boundaries.length - 1]);
+
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+            try (WarcReader reader = new WarcReader(path, boundaries[i], boundaries[i + 1])) {
+                for (WarcRecord record : reader) {
+                    actual.add(reader.position() + " " + ((WarcTargetRecord) record).target());
+                }
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static void checkSplitting(Path path) throws IOException {
+        List<String> expected = new ArrayList<>();
+        try (WarcReader reader = new WarcReader(path)) {
+            for (WarcRecord record : reader) {
+                expected.add(((WarcTargetRecord) record).target());
+            }
+        }
+
+        try (WarcReader reader = new WarcReader(path)) {
+            assertEquals(expected.size(), reader.records().count());
+        }
+
+        WarcReader template = new WarcReader(path);
+        Queue<WarcReader> openReaders = new ConcurrentLinkedQueue<>();
+        WarcSpliterator spliterator = new WarcSpliterator(template, path, 0, Files.size(path), openReaders, 1024);
+        Spliterator<WarcRecord> prefix = spliterator.trySplit();
+        assertNotNull(prefix);
+        List<String> actual = new ArrayList<>();
+        for (Spliterator<WarcRecord> split : Arrays.asList(prefix, spliterator)) {
+            split.forEachRemaining(record -> actual.add(((WarcTargetRecord) record).target()));
+        }
+        assertEquals(expected, actual);
+        assertTrue(openReaders.isEmpty());
+
+        spliterator = new WarcSpliterator(template, path, 0, Files.size(path), openReaders, 1024);
+        List<String> targets = StreamSupport.stream(spliterator, true)
+                .map(record -> ((WarcTargetRecord) record).target())
+                .collect(Collectors.toList());
+        assertEquals(expected, targets);
+        template.close();
+    }
+
+    @Test
+    public void splitFailureClosesChannel() throws IOException {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds)) return; // no way to count open files here
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            Files.write(temp, gzippedRecords(new Random(0), 3));
+            long size = Files.size(temp);
+            try (WarcReader template = new WarcReader(temp)) {
+                long before = countFiles(fds);
+                for (int i = 0; i < 20; i++) {
+                    // a range starting on the file's last byte fails while the reader is being set up
+                    WarcSpliterator spliterator = new WarcSpliterator(template, temp, size - 1, size,
+                            new ConcurrentLinkedQueue<>(), 1024);
+                    try {
+                        spliterator.tryAdvance(record -> {
+                        });
+                        throw new AssertionError("expected UncheckedIOException");
+                    } catch (UncheckedIOException e) {
+                        // expected
+                    }
+                }
+                assertTrue(countFiles(fds) < before + 20);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    static void checkRandomAccess(Path path) throws IOException {
+        List<Long> positions = new ArrayList<>();
+        List<String> targets = new ArrayList<>();
+        try (WarcReader reader = new WarcReader(path)) {
+            for (WarcRecord record : reader) {
+                positions.add(reader.position());
+                targets.add(((WarcTargetRecord) record).target());
+            }
+        }
+        assertEquals(10, positions.size());
+
+        try (FileChannel channel = FileChannel.open(path);
+             WarcReader reader = new WarcReader(path)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            WarcReader mappedReader = new WarcReader(mapped);
+            for (int i = positions.size() - 1; i >= 0; i--) {
+                for (WarcReader r : Arrays.asList(reader, mappedReader)) {
+                    r.position(positions.get(i));
+                    WarcRecord record = r.next().get();
+                    assertEquals(targets.get(i), ((WarcTargetRecord) record).target());
+                    assertEquals((long) positions.get(i), r.position());
+                    if (i % 2 == 0) { // leave some bodies partially read
+                        record.body().stream().read();
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<String> headers(WarcReader reader, boolean fastSkip) throws IOException {
+        List<String> list = new ArrayList<>();
+        reader.setFastSkip(fastSkip);
+        try {
+            for (WarcRecord record : reader) {
+                record.body().stream().read(); // partially read bodies should be skipped too
+                list.add(reader.position() + " " + ((WarcTargetRecord) record).target());
+            }
+        } finally {
+            reader.close();
+        }
+        return list;
+    }
+
+    /**
+     * Rewrites each gzip member with an 'sl' extra field holding its compressed length.
+     */
+    private static byte[] addMemberLengths(byte[] gzipped) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WarcReader reader = new WarcReader(ByteBuffer.wrap(gzipped));
+        List<Long> offsets = new ArrayList<>();
+        for (WarcRecord record : reader) {
+            offsets.add(reader.position());
+        }
+        offsets.add((long) gzipped.length);
+        for (int i = 0; i + 1 < offsets.size(); i++) {
+            int start = offsets.get(i).intValue();
+            int end = offsets.get(i + 1).intValue();
+            int length = end - start + 14;
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(gzipped, start, 10);
+            header.put(3, (byte) (gzipped[start + 3] | 4));
+            header.putShort((short) 12).put((byte) 's').put((byte) 'l').putShort((short) 8);
+            header.putInt(length).putInt(0);
+            out.write(header.array());
+            out.write(gzipped, start + 10, end - start - 10);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Generates records of varied size, each compressed as a separate gzip member. Every tenth record is larger than
+     * the parallel reader's per-member buffer and some bodies contain bytes that look like gzip headers.
+     */
+    static byte[] gzippedRecords(Random random, int count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            int size = i % 10 == 9 ? ParallelGunzipChannel.MEMBER_BUFFER_LIMIT * 2 : random.nextInt(20000);
+            byte[] body = new byte[size];
+            for (int j = 0; j < size; j++) {
+                body[j] = (byte) ('a' + random.nextInt(4));
+            }
+            if (size > 4) {
+                body[0] = 0x1f;
+                body[1] = (byte) 0x8b;
+                body[2] = 8;
+                body[3] = 0;
+            }
+            WarcResource record = new WarcResource.Builder(URI.create("http://example.org/" + i))
+                    .body(MediaType.OCTET_STREAM, body)
+                    .build();
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            try (OutputStream gzip = new GZIPOutputStream(member);
+                 WarcWriter writer = new WarcWriter(gzip)) {
+                writer.write(record);
+            }
+            out.write(member.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    static List<String> summarise(WarcReader reader) throws IOException {
+        List<String> list = new ArrayList<>();
+        try {
+            for (WarcRecord record : reader) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                IOUtils.copy(record.body().stream(), body);
+                list.add(reader.position() + " " + ((WarcTargetRecord) record).target() + " " + body.size() + " " +
+                        Arrays.hashCode(body.toByteArray()));
+            }
+        } finally {
+            reader.close();
+        }
+        return list;
+    }
+}
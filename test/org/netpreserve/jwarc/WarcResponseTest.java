@@ -8,9 +8,13 @@ package org.netpreserve.jwarc;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
@@ -55,6 +59,99 @@ public class WarcResponseTest {
         assertEquals(Optional.of(URI.create("urn:uuid:d7ae5c10-e6b3-4d27-967d-34780c58ba39")), response.warcinfoID());
     }
 
+    @Test
+    public void lenientHttp() throws IOException {
+        String http = "HTTP/1.1 200\n" +
+                "Server: x\r\n" +
+                " continued\r\n" +
+                "junk\r\n" +
+                "X-A : b\n" +
+                "\r\n" +
+                "hello";
+        String record = "WARC/1.1\r\n" +
+                "WARC-Type: response\r\n" +
+                "Content-Type: application/http;msgtype=response\r\n" +
+                "Content-Length: " + http.length() + "\r\n" +
+                "\r\n" + http + "\r\n\r\n";
+
+        WarcResponse strict = (WarcResponse) new WarcReader(new ByteArrayInputStream(record.getBytes(UTF_8))).next().get();
+        try {
+            strict.http();
+            throw new AssertionError("expected strict parsing to fail");
+        } catch (ParsingException e) {
+            // expected
+        }
+
+        WarcReader reader = new WarcReader(new ByteArrayInputStream(record.getBytes(UTF_8)));
+        reader.setLenientHttp(true);
+        WarcResponse response = (WarcResponse) reader.next().get();
+        assertEquals(200, response.http().status());
+        assertEquals("", response.http().reason());
+        assertEquals(Optional.of("x continued"), response.http().headers().sole("Server"));
+        assertEquals(Optional.of("b"), response.http().headers().sole("X-A"));
+        byte[] body = new byte[5];
+        assertEquals(5, response.http().body().stream().read(body));
+        assertEquals("hello", new String(body, UTF_8));
+        assertEquals(5, reader.httpAnomalies());
+    }
+
+    @Test
+    public void chunkedContentEncoding() throws IOException {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write("hello world".getBytes(UTF_8));
+        }
+        assertEquals("hello world", decode("gzip", gzipped.toByteArray(), true));
+        assertEquals("hello world", decode("x-gzip", gzipped.toByteArray(), false));
+
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(deflated)) {
+            deflate.write("hello world".getBytes(UTF_8));
+        }
+        assertEquals("hello world", decode("deflate", deflated.toByteArray(), true));
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(raw, new Deflater(6, true))) {
+            deflate.write("hello world".getBytes(UTF_8));
+        }
+        assertEquals("hello world", decode("deflate", raw.toByteArray(), false));
+        assertEquals("hello world", decode("identity", "hello world".getBytes(UTF_8), true));
+    }
+
+    private static String decode(String contentEncoding, byte[] content, boolean chunked) throws IOException {
+        ByteArrayOutputStream http = new ByteArrayOutputStream();
+        http.write(("HTTP/1.1 200 OK\r\n" +
+                "Content-Encoding: " + contentEncoding + "\r\n" +
+                (chunked ? "Transfer-Encoding: chunked\r\nTransfer-Encoding: chunked\r\n" :
+                        "Content-Length: " + content.length + "\r\n") +
+                "\r\n").getBytes(UTF_8));
+        if (chunked) {
+            http.write((Integer.toHexString(3) + "\r\n").getBytes(UTF_8));
+            http.write(content, 0, 3);
+            http.write(("\r\n" + Integer.toHexString(content.length - 3) + "\r\n").getBytes(UTF_8));
+            http.write(content, 3, content.length - 3);
+            http.write("\r\n0\r\n\r\n".getBytes(UTF_8));
+        } else {
+            http.write(content);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(("WARC/1.1\r\n" +
+                "WARC-Type: response\r\n" +
+                "Content-Type: application/http;msgtype=response\r\n" +
+                "Content-Length: " + http.size() + "\r\n" +
+                "\r\n").getBytes(UTF_8));
+        http.writeTo(record);
+        record.write("\r\n\r\n".getBytes(UTF_8));
+
+        WarcResponse response = (WarcResponse) new WarcReader(new ByteArrayInputStream(record.toByteArray())).next().get();
+        assertEquals(chunked ? -1 : content.length, response.http().body().size());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (MessageBody body = response.payload().get().decodedBody()) {
+            IOUtils.copy(body.stream(), decoded);
+        }
+        return new String(decoded.toByteArray(), UTF_8);
+    }
+
     @Test
     public void builder() throws IOException {
         WarcResponse response = new WarcResponse.Builder(URI.create("http://example.org/"))
@@ -0,0 +1,167 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WarcScannerTest {
+    @Test
+    public void test() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try {
+            long totalSize = 0;
+            for (int count : new int[]{3, 8, 1, 5}) {
+                Path file = Files.createTempFile("jwarc-test", ".warc.gz");
+                files.add(file);
+                Files.write(file, WarcReaderTest.gzippedRecords(new Random(count), count));
+                totalSize += Files.size(file);
+            }
+
+            WarcScanner scanner = new WarcScanner(files);
+            scanner.setThreads(2);
+
+            List<Integer> counts = new ArrayList<>();
+            scanner.forEachFile((file, reader) -> {
+                int count = 0;
+                for (WarcRecord record : reader) count++;
+                return count;
+            }, counts::add);
+            assertEquals(Arrays.asList(3, 8, 1, 5), counts);
+            assertEquals(totalSize, scanner.bytesScanned());
+
+            scanner = new WarcScanner(files);
+            scanner.registerType("resource", Custom::new);
+            List<String> targets = scanner.collect(Collectors.mapping(record ->
+                    record.getClass().getSimpleName() + " " + ((WarcTargetRecord) record).target(), Collectors.toList()));
+            assertEquals(17, targets.size());
+            assertEquals("Custom http://example.org/0", targets.get(0));
+            assertEquals("Custom http://example.org/2", targets.get(2));
+            assertEquals("Custom http://example.org/0", targets.get(3));
+            assertEquals(17, scanner.recordsScanned());
+            assertEquals(4, scanner.filesScanned());
+            assertEquals(totalSize, scanner.bytesScanned());
+
+            // counters start again from zero for each scan
+            scanner.forEachFile((file, reader) -> null, result -> {
+            });
+            assertEquals(4, scanner.filesScanned());
+            assertEquals(0, scanner.recordsScanned());
+            assertEquals(totalSize, scanner.bytesScanned());
+
+            List<String> lines = new ArrayList<>();
+            WarcScanner streaming = new WarcScanner(files);
+            streaming.setThreads(2);
+            streaming.<String>forEachFileStreamed((file, reader, output) -> {
+                for (WarcRecord record : reader) {
+                    output.accept(files.indexOf(file) + " " + ((WarcTargetRecord) record).target());
+                }
+            }, lines::add);
+            assertEquals(17, lines.size());
+            assertEquals("0 http://example.org/0", lines.get(0));
+            assertEquals("1 http://example.org/0", lines.get(3));
+            assertEquals("3 http://example.org/4", lines.get(16));
+
+            // the first file's output isn't held back until it finishes
+            List<String> seen = new ArrayList<>();
+            new WarcScanner(files.subList(0, 1)).<String>forEachFileStreamed((file, reader, output) -> {
+                output.accept("first");
+                assertEquals(Arrays.asList("first"), seen);
+            }, seen::add);
+
+            AtomicLong bodyBytes = new AtomicLong();
+            new WarcScanner(files).forEachRecord((file, position, record) ->
+                    bodyBytes.addAndGet(record.body().size()));
+            assertTrue(bodyBytes.get() > 0);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void streamedOutput() throws Exception {
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < 12; i++) {
+                Path file = Files.createTempFile("jwarc-test", ".warc.gz");
+                files.add(file);
+                Files.write(file, WarcReaderTest.gzippedRecords(new Random(i), 2));
+            }
+
+            // while the first file is slow, files more than two (the thread count) past it wait instead of running on
+            AtomicInteger lastStarted = new AtomicInteger();
+            List<String> lines = new ArrayList<>();
+            WarcScanner scanner = new WarcScanner(files);
+            scanner.setThreads(2);
+            scanner.<String>forEachFileStreamed((file, reader, output) -> {
+                int index = files.indexOf(file);
+                lastStarted.accumulateAndGet(index, Math::max);
+                if (index == 0) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    assertTrue(lastStarted.get() <= 3);
+                }
+                for (WarcRecord record : reader) {
+                    output.accept(index + " " + ((WarcTargetRecord) record).target());
+                }
+            }, lines::add);
+            assertEquals(24, lines.size());
+            for (int i = 0; i < 24; i++) {
+                assertEquals(i / 2 + " http://example.org/" + i % 2, lines.get(i));
+            }
+
+            // other files can still buffer output while the consumer is busy
+            CountDownLatch secondFileEmitted = new CountDownLatch(1);
+            List<Boolean> waited = new ArrayList<>();
+            scanner = new WarcScanner(files.subList(0, 2));
+            scanner.setThreads(2);
+            scanner.<Integer>forEachFileStreamed((file, reader, output) -> {
+                output.accept(files.indexOf(file));
+                if (files.indexOf(file) == 1) secondFileEmitted.countDown();
+            }, index -> {
+                if (index == 0) {
+                    try {
+                        waited.add(secondFileEmitted.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            assertEquals(Arrays.asList(true), waited);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    static class Custom extends WarcTargetRecord {
+        Custom(MessageVersion version, MessageHeaders headers, MessageBody body) {
+            super(version, headers, body);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ * Copyright (C) 2018 National Library of Australia and the jwarc contributors
+ */
+
+package org.netpreserve.jwarc;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.netpreserve.jwarc.WarcReaderTest.checkRandomAccess;
+import static org.netpreserve.jwarc.WarcReaderTest.gzippedRecords;
+import static org.netpreserve.jwarc.WarcReaderTest.summarise;
+
+public class WarcWriterTest {
+    @Test
+    public void gatheringWriteLargerThanBuffer() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        // accepts at most 100 bytes per call so every gathering write is partial
+        int[] gatheringWrites = {0};
+        GatheringByteChannel gathering = new GatheringByteChannel() {
+            public long write(ByteBuffer[] srcs, int offset, int length) {
+                gatheringWrites[0]++;
+                long written = 0;
+                for (int i = offset; i < offset + length && written < 100; i++) {
+                    written += write(srcs[i], (int) (100 - written));
+                }
+                return written;
+            }
+
+            public long write(ByteBuffer[] srcs) {
+                return write(srcs, 0, srcs.length);
+            }
+
+            public int write(ByteBuffer src) {
+                return write(src, 100);
+            }
+
+            private int write(ByteBuffer src, int limit) {
+                int n = Math.min(src.remaining(), limit);
+                actual.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.position() + n);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        byte[] data = new byte[20000];
+        new Random(0).nextBytes(data);
+        try (WarcWriter plain = new WarcWriter(expected);
+             WarcWriter writer = new WarcWriter(gathering, WarcCompression.NONE, 1024)) {
+            for (int size : new int[]{0, 10, 1023, 1024, 1025, 20000}) {
+                byte[] body = Arrays.copyOf(data, size);
+                plain.write(fixedResource().body(MediaType.OCTET_STREAM, body).build());
+                writer.write(fixedResource().body(MediaType.OCTET_STREAM, body).build());
+                assertEquals(plain.position(), writer.position());
+            }
+            // a body that isn't backed by an array arrives in pieces smaller than the buffer
+            plain.write(fixedResource().body(MediaType.OCTET_STREAM, data).build());
+            writer.write(fixedResource().body(MediaType.OCTET_STREAM,
+                    Channels.newChannel(new ByteArrayInputStream(data)), data.length).build());
+            assertEquals(plain.position(), writer.position());
+        }
+        assertTrue(gatheringWrites[0] > 0);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void transferToFileBody() throws IOException {
+        Path source = Files.createTempFile("jwarc-test", ".tmp");
+        Path warc = Files.createTempFile("jwarc-test", ".warc");
+        Path copy = Files.createTempFile("jwarc-test", ".warc");
+        try {
+            byte[] data = new byte[100000];
+            new Random(0).nextBytes(data);
+            Files.write(source, data);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (WarcWriter plain = new WarcWriter(expected);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(warc, WRITE, TRUNCATE_EXISTING));
+                 FileChannel file = FileChannel.open(source)) {
+                plain.write(fixedResource().body(MediaType.OCTET_STREAM, data).build());
+                writer.write(fixedResource().body(MediaType.OCTET_STREAM, file, file.size()).build());
+                assertEquals(plain.position(), writer.position());
+
+                // starting partway into the file and stopping short of its end
+                file.position(1000);
+                plain.write(fixedResource().body(MediaType.OCTET_STREAM, Arrays.copyOfRange(data, 1000, 51000))
+                        .build());
+                writer.write(fixedResource().body(MediaType.OCTET_STREAM, file, 50000).build());
+                assertEquals(51000, file.position());
+                assertEquals(plain.position(), writer.position());
+            }
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(warc));
+
+            // records read from a file have the start of their body in the reader's buffer and the rest in the file
+            try (WarcReader reader = new WarcReader(warc);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(copy, WRITE, TRUNCATE_EXISTING))) {
+                for (WarcRecord record : reader) {
+                    writer.write(record);
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(warc), Files.readAllBytes(copy));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(warc);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private static WarcResource.Builder fixedResource() {
+        return new WarcResource.Builder(URI.create("http://example.org/"))
+                .recordId(URI.create("urn:uuid:d7ae5c10-e6b3-4d27-967d-34780c58ba39"))
+                .date(Instant.parse("2019-03-12T06:18:15Z"));
+    }
+
+    @Test
+    public void rawCopy() throws IOException {
+        Path gzipped = Files.createTempFile("jwarc-test", ".warc.gz");
+        Path plain = Files.createTempFile("jwarc-test", ".warc");
+        Path copy = Files.createTempFile("jwarc-test", ".warc");
+        try {
+            Files.write(gzipped, gzippedRecords(new Random(0), 10));
+            List<String> expected = summarise(new WarcReader(gzipped));
+
+            // gzip to gzip copies the members byte for byte, whether or not the body was partly read
+            try (WarcReader reader = new WarcReader(gzipped);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(copy, WRITE, TRUNCATE_EXISTING),
+                         WarcCompression.GZIP)) {
+                for (WarcRecord record : reader) {
+                    if (reader.position() % 2 == 0) record.body().read(ByteBuffer.allocate(100));
+                    assertEquals(reader.position(), writer.position());
+                    writer.writeRaw(reader);
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(gzipped), Files.readAllBytes(copy));
+
+            // gzip to uncompressed falls back to writing the records normally
+            try (WarcReader reader = new WarcReader(gzipped);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(plain, WRITE, TRUNCATE_EXISTING))) {
+                for (WarcRecord record : reader) {
+                    writer.writeRaw(reader);
+                }
+            }
+            assertEquals(withoutPositions(expected), withoutPositions(summarise(new WarcReader(plain))));
+
+            // uncompressed to uncompressed, from both a file and a buffer
+            try (WarcReader reader = new WarcReader(plain);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(copy, WRITE, TRUNCATE_EXISTING))) {
+                for (WarcRecord record : reader) {
+                    writer.writeRaw(reader);
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(plain), Files.readAllBytes(copy));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (WarcReader reader = new WarcReader(ByteBuffer.wrap(Files.readAllBytes(plain)));
+                 WarcWriter writer = new WarcWriter(out)) {
+                for (WarcRecord record : reader) {
+                    writer.writeRaw(reader);
+                }
+            }
+            assertArrayEquals(Files.readAllBytes(plain), out.toByteArray());
+
+            // a single gzip member holding every record can't be copied raw
+            try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+                Files.copy(plain, stream);
+            }
+            try (WarcReader reader = new WarcReader(gzipped);
+                 WarcWriter writer = new WarcWriter(FileChannel.open(copy, WRITE, TRUNCATE_EXISTING),
+                         WarcCompression.GZIP)) {
+                for (WarcRecord record : reader) {
+                    writer.writeRaw(reader);
+                }
+            }
+            assertEquals(withoutPositions(expected), withoutPositions(summarise(new WarcReader(copy))));
+        } finally {
+            Files.deleteIfExists(gzipped);
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private static List<String> withoutPositions(List<String> summaries) {
+        return summaries.stream().map(s -> s.substring(s.indexOf(' ') + 1)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void gzipWriter() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        try {
+            List<Long> offsets = new ArrayList<>();
+            try (WarcWriter writer = new WarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING),
+                    WarcCompression.GZIP)) {
+                for (int i = 0; i < 10; i++) {
+                    if (i == 5) {
+                        writer.setCompressionLevel(Deflater.BEST_SPEED);
+                        writer.setCompressionStrategy(Deflater.HUFFMAN_ONLY);
+                    }
+                    offsets.add(writer.position());
+                    writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.OCTET_STREAM, new byte[i * 1000]).build());
+                }
+                offsets.add(writer.position());
+            }
+            assertEquals((long) offsets.get(10), Files.size(temp));
+            try (WarcReader reader = new WarcReader(temp)) {
+                assertEquals(WarcCompression.GZIP, reader.compression());
+                int i = 0;
+                for (WarcRecord record : reader) {
+                    assertEquals((long) offsets.get(i), reader.position());
+                    assertEquals(i * 1000, record.body().size());
+                    i++;
+                }
+                assertEquals(10, i);
+            }
+            checkRandomAccess(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void gzipWriterFailure() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WarcWriter writer = new WarcWriter(Channels.newChannel(out), WarcCompression.GZIP);
+        writer.write(fixedResource().build());
+        ReadableByteChannel failing = new ReadableByteChannel() {
+            private int reads;
+
+            public int read(ByteBuffer dst) throws IOException {
+                if (++reads > 3) throw new IOException("source failed");
+                int n = Math.min(dst.remaining(), 1000);
+                dst.put(new byte[n]);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            writer.write(fixedResource().body(MediaType.OCTET_STREAM, failing, 100000).build());
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            assertEquals("source failed", e.getMessage());
+        }
+        try {
+            writer.write(fixedResource().build());
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            assertEquals("source failed", e.getCause().getMessage());
+        }
+        writer.close();
+
+        // only what was written before the failure is in the output
+        try (WarcReader reader = new WarcReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertTrue(reader.next().isPresent());
+        }
+    }
+
+    @Test
+    public void parallelGzipWriter() throws IOException {
+        Path temp = Files.createTempFile("jwarc-test", ".warc.gz");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random random = new Random(0);
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            // a small in-flight limit so writes block and the largest records take the direct path
+            try (ParallelWarcWriter writer = new ParallelWarcWriter(FileChannel.open(temp, WRITE, TRUNCATE_EXISTING),
+                    executor, 64 * 1024)) {
+                for (int i = 0; i < 50; i++) {
+                    int size = i % 10 == 9 ? 100 * 1024 : random.nextInt(20000);
+                    byte[] body = new byte[size];
+                    for (int j = 0; j < size; j++) {
+                        body[j] = (byte) ('a' + random.nextInt(4));
+                    }
+                    if (i == 25) writer.setCompressionLevel(Deflater.BEST_SPEED);
+                    futures.add(writer.write(new WarcResource.Builder(URI.create("http://example.org/" + i))
+                            .body(MediaType.OCTET_STREAM, body).build()));
+                    sizes.add(size);
+                }
+            }
+            try (WarcReader reader = new WarcReader(temp)) {
+                assertEquals(WarcCompression.GZIP, reader.compression());
+                int i = 0;
+                for (WarcRecord record : reader) {
+                    assertEquals((long) futures.get(i).join(), reader.position());
+                    assertEquals("http://example.org/" + i, ((WarcResource) record).target());
+                    assertEquals((long) sizes.get(i), record.body().size());
+                    i++;
+                }
+                assertEquals(50, i);
+            }
+            try (WarcReader reader = new WarcReader(temp)) {
+                reader.position(futures.get(37).join());
+                assertEquals("http://example.org/37", ((WarcResource) reader.next().get()).target());
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Test
+    public void parallelGzipWriterRejected() throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelWarcWriter writer = new ParallelWarcWriter(Channels.newChannel(out), executor, 1024 * 1024);
+        writer.write(fixedResource().build()).join();
+        executor.shutdown();
+        try {
+            writer.write(fixedResource().build());
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        // the rejected record mustn't be waited for or keep holding its reservation
+        writer.flush();
+        writer.write(fixedResource().body(MediaType.OCTET_STREAM, new byte[2 * 1024 * 1024]).build()).join();
+        writer.close();
+        assertEquals(2, summarise(new WarcReader(new ByteArrayInputStream(out.toByteArray()))).size());
+    }
+
+    @Test
+    public void parallelGzipWriterDirectFailure() throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ParallelWarcWriter writer = new ParallelWarcWriter(Channels.newChannel(out), executor, 1024);
+            writer.write(fixedResource().build()).join();
+            Random random = new Random(0);
+            ReadableByteChannel failing = new ReadableByteChannel() {
+                private int reads;
+
+                public int read(ByteBuffer dst) {
+                    if (++reads > 20) throw new IllegalStateException("source failed");
+                    byte[] data = new byte[dst.remaining()];
+                    random.nextBytes(data);
+                    dst.put(data);
+                    return data.length;
+                }
+
+                public boolean isOpen() {
+                    return true;
+                }
+
+                public void close() {
+                }
+            };
+            // larger than the in-flight limit so it's written directly and fails with part of its member written
+            try {
+                writer.write(fixedResource().body(MediaType.OCTET_STREAM, failing, 1024 * 1024).build());
+                throw new AssertionError("expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                assertEquals("source failed", e.getMessage());
+            }
+            try {
+                writer.write(fixedResource().build());
+                throw new AssertionError("expected IOException");
+            } catch (IOException e) {
+                assertEquals("source failed", e.getCause().getCause().getMessage());
+            }
+            int size = out.size();
+            try {
+                writer.close();
+                throw new AssertionError("expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+            // the partial member isn't given a trailer
+            assertEquals(size, out.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}